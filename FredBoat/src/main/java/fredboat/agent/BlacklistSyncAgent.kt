@@ -0,0 +1,19 @@
+package fredboat.agent
+
+import fredboat.util.ratelimit.Ratelimiter
+import org.springframework.stereotype.Service
+import java.util.concurrent.TimeUnit
+
+/**
+ * Persists queued blacklist changes and keeps the in-memory blacklist up to date with the backend
+ */
+@Service
+class BlacklistSyncAgent(
+        private val ratelimiter: Ratelimiter
+) : FredBoatAgent("blacklist-sync", 15, TimeUnit.SECONDS) {
+
+    override fun doRun() {
+        ratelimiter.syncBlacklist()
+    }
+
+}
@@ -3,23 +3,31 @@ package fredboat.agent
 import com.fredboat.sentinel.entities.GuildUnsubscribeRequest
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.audio.player.PlayerRegistry
+import fredboat.commandmeta.CommandPrefixFilter
 import fredboat.sentinel.GuildCache
 import fredboat.sentinel.InternalGuild
 import lavalink.client.io.Link
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Controller
+import java.util.ArrayDeque
 import java.util.concurrent.TimeUnit
 
+/**
+ * Unsubscribes from guilds that have not been used for [GuildCache.IDLE_TIMEOUT_MILLIS]. Idle guilds are found through
+ * [GuildCache.pollIdle] and unsubscribed from in batches of [UNSUBSCRIBE_BATCH_SIZE] per run, to spread out the
+ * requests to the Sentinels when many guilds become idle at once.
+ */
 @Controller
 class GuildCacheInvalidationAgent(
         val guildCache: GuildCache,
         private val playerRegistry: PlayerRegistry,
-        private val lavalink: SentinelLavalink
-) : FredBoatAgent("cache-invalidator", 5, TimeUnit.MINUTES) {
+        private val lavalink: SentinelLavalink,
+        private val prefixFilter: CommandPrefixFilter
+) : FredBoatAgent("cache-invalidator", 10, TimeUnit.SECONDS) {
 
     companion object {
-        private const val TIMEOUT_MILLIS: Long = 10 * 60 * 1000 // 10 minutes
+        private const val UNSUBSCRIBE_BATCH_SIZE = 100
         private val log: Logger = LoggerFactory.getLogger(GuildCacheInvalidationAgent::class.java)
         lateinit var INSTANCE: GuildCacheInvalidationAgent
     }
@@ -29,33 +37,41 @@ class GuildCacheInvalidationAgent(
         INSTANCE = this
     }
 
+    /** Idle guilds we have yet to unsubscribe from. Only accessed by the agent thread */
+    private val backlog = ArrayDeque<InternalGuild>()
+
     override fun doRun() {
-        val keysToRemove = mutableListOf<InternalGuild>()
-        guildCache.cache.forEach { _, guild ->
-            if (!guild.shouldInvalidate()) return@forEach
-            keysToRemove.add(guild)
+        val now = System.currentTimeMillis()
+        guildCache.pollIdle(now).forEach {
+            if (it.isBusy()) guildCache.postponeIdle(it, now) else backlog.add(it)
         }
-        keysToRemove.forEach {
+
+        var sent = 0
+        while (sent < UNSUBSCRIBE_BATCH_SIZE) {
+            val guild = backlog.poll() ?: break
+            // The guild may have been used or unsubscribed from while it was waiting
+            if (guildCache.cache[guild.id] !== guild) continue
+            if (guild.lastUsed + GuildCache.IDLE_TIMEOUT_MILLIS > now || guild.isBusy()) {
+                guildCache.postponeIdle(guild, now)
+                continue
+            }
+
             try {
-                invalidateGuild(it)
+                invalidateGuild(guild)
             } catch (e: Exception) {
-                log.error("Exception while invalidating guild $it")
+                log.error("Exception while invalidating guild $guild")
             }
+            sent++
         }
+        if (!backlog.isEmpty()) log.info("{} idle guilds are waiting to be unsubscribed from", backlog.size)
     }
 
-    private fun InternalGuild.shouldInvalidate(): Boolean {
-        // Has this guild been used recently?
-        if (lastUsed + TIMEOUT_MILLIS > System.currentTimeMillis()) return false
-
+    private fun InternalGuild.isBusy(): Boolean {
         // Are we connected to voice?
-        if (link.state == Link.State.CONNECTED) return false
+        if (link.state == Link.State.CONNECTED) return true
 
         // Are we playing music?
-        if (this.guildPlayer?.isPlaying == true) return false
-
-        // If not then invalidate
-        return true
+        return this.guildPlayer?.isPlaying == true
     }
 
     fun invalidateGuild(guild: InternalGuild) {
@@ -68,6 +84,7 @@ class GuildCacheInvalidationAgent(
         }
         guild.sentinel.sendAndForget(guild.routingKey, GuildUnsubscribeRequest(guild.id))
         guildCache.cache.remove(guild.id)
+        prefixFilter.remove(guild.id)
     }
 
 }
\ No newline at end of file
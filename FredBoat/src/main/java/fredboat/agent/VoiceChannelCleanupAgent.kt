@@ -76,7 +76,7 @@ class VoiceChannelCleanupAgent(
 
                     totalVcs.incrementAndGet()
 
-                    if (vc != null && getHumanMembersInVC(vc).isEmpty()) {
+                    if (vc != null && vc.humanCount == 0) {
                         closedVcs.incrementAndGet()
                         VoteSkipCommand.guildSkipVotes.remove(guild.id)
                         link.disconnect()
@@ -111,9 +111,6 @@ class VoiceChannelCleanupAgent(
         Metrics.voiceChannelsCleanedUp.inc(closedVcs.get().toDouble())
     }
 
-    private fun getHumanMembersInVC(vc: VoiceChannel) =
-            vc.members.flatMap { if(!it.isBot) listOf(it) else emptyList() }
-
     private fun isBeingUsed(vc: VoiceChannel): Boolean {
         val guildPlayer = playerRegistry.getExisting(vc.guild)
 
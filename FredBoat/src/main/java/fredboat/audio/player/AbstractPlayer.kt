@@ -43,6 +43,7 @@ import lavalink.client.player.event.AudioEventAdapterWrapped
 import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.function.Consumer
 
 abstract class AbstractPlayer internal constructor(
@@ -60,6 +61,11 @@ abstract class AbstractPlayer internal constructor(
     private var lastLoadedTrack: AudioTrackContext? = null
     private val historyQueue = ConcurrentLinkedQueue<AudioTrackContext>()
 
+    /** Called with 1 or -1 whenever this player starts or stops counting as playing, see [isPlaying] */
+    @Volatile
+    internal var playingCountListener: ((Int) -> Unit)? = null
+    private val countedAsPlaying = AtomicBoolean(false)
+
     companion object {
         private val log = LoggerFactory.getLogger(AbstractPlayer::class.java)
         private const val MAX_HISTORY_SIZE = 20
@@ -130,7 +136,7 @@ abstract class AbstractPlayer internal constructor(
         if (player.playingTrack == null) {
             loadAndPlay()
         }
-
+        updatePlayingState()
     }
 
     fun setPause(pause: Boolean) {
@@ -142,6 +148,7 @@ abstract class AbstractPlayer internal constructor(
             player.isPaused = false
             play()
         }
+        updatePlayingState()
     }
 
     /**
@@ -151,6 +158,7 @@ abstract class AbstractPlayer internal constructor(
         log.trace("pause()")
 
         player.isPaused = true
+        updatePlayingState()
     }
 
     /**
@@ -181,6 +189,7 @@ abstract class AbstractPlayer internal constructor(
 
         context = null
         player.stopTrack()
+        updatePlayingState()
     }
 
     fun getTracksInHistory(start: Int, end: Int): List<AudioTrackContext> {
@@ -211,6 +220,40 @@ abstract class AbstractPlayer internal constructor(
         } else {
             log.warn("Track " + track.identifier + " ended with unexpected reason: " + endReason)
         }
+        updatePlayingState()
+    }
+
+    override fun onTrackStart(player: AudioPlayer?, track: AudioTrack?) {
+        updatePlayingState()
+    }
+
+    override fun onPlayerPause(player: AudioPlayer?) {
+        updatePlayingState()
+    }
+
+    override fun onPlayerResume(player: AudioPlayer?) {
+        updatePlayingState()
+    }
+
+    /**
+     * Notify the [playingCountListener] if [isPlaying] changed since the last time this was called.
+     *
+     * @return true if the playing state had to be changed
+     */
+    internal fun updatePlayingState(): Boolean {
+        val playing = isPlaying
+        val changed = countedAsPlaying.compareAndSet(!playing, playing)
+        if (changed) playingCountListener?.invoke(if (playing) 1 else -1)
+        return changed
+    }
+
+    /**
+     * Stop counting this player as playing for good, used when it is destroyed
+     */
+    internal fun detachPlayingCount() {
+        val listener = playingCountListener
+        playingCountListener = null
+        if (countedAsPlaying.getAndSet(false)) listener?.invoke(-1)
     }
 
     //request the next track from the track provider and start playing it
@@ -253,6 +296,7 @@ abstract class AbstractPlayer internal constructor(
     internal open fun destroy() {
         stop()
         player.removeListener(this)
+        detachPlayingCount()
         player.link.destroy()
     }
 
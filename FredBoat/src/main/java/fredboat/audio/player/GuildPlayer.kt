@@ -123,6 +123,12 @@ class GuildPlayer(
     val humanUsersInCurrentVC: List<Member>
         get() = getHumanUsersInVC(currentVoiceChannel)
 
+    /**
+     * @return Amount of users who are not bots, without collecting them
+     */
+    val humanUsersInCurrentVCCount: Int
+        get() = currentVoiceChannel?.humanCount ?: 0
+
     var repeatMode: RepeatMode
         get() = if (audioTrackProvider is AbstractTrackProvider)
             audioTrackProvider.repeatMode
@@ -28,6 +28,7 @@ package fredboat.audio.player
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.db.api.GuildConfigService
+import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Guild
 import fredboat.util.ratelimit.Ratelimiter
 import fredboat.util.rest.YoutubeAPI
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import java.util.function.BiConsumer
 import kotlin.streams.toList
 
@@ -55,6 +57,9 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
 
     private val iteratorLock = Any() //iterators, which are also used by stream(), need to be synced, despite it being a concurrent map
 
+    //kept up to date by the players themselves whenever they start or stop playing
+    private val playingCounter = AtomicLong()
+
     /**
      * @return a copied list of the the playing players of the registry. This may be an expensive operation depending on
      * the size, don't use this in code that is called often. Instead, have a look at other methods like
@@ -73,6 +78,7 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
             val p = GuildPlayer(lavalink, guild, musicTextChannelProvider, audioPlayerManager, guildConfigService,
                     ratelimiter, youtubeAPI)
             p.volume = DEFAULT_VOLUME
+            p.playingCountListener = { playingCounter.addAndGet(it.toLong()) }
             p
         }
     }
@@ -103,6 +109,7 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
                 log.info("Destroying player for guild $guildId")
                 player.destroy()
             }
+            player.detachPlayingCount()
             registry.remove(guildId)
         }
     }
@@ -111,11 +118,33 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
         return registry.size.toLong()
     }
 
+    /**
+     * @return amount of playing players. This is a single atomic read, see [reconcilePlayingCount] for how it is kept
+     * honest.
+     */
     fun playingCount(): Long {
+        return playingCounter.get()
+    }
+
+    /**
+     * The playing count is driven by the state transitions of the players. Some transitions, like a Lavalink node
+     * going away, may not be reported to us, so this walks all players, corrects the ones whose state was missed, and
+     * reports the difference as a metric. Call this periodically.
+     */
+    fun reconcilePlayingCount() {
+        val counted = playingCounter.get()
+        var actual = 0L
+        var corrected = 0
         synchronized(iteratorLock) {
-            return registry.values.stream()
-                    .filter { it.isPlaying }
-                    .count()
+            registry.values.forEach {
+                if (it.updatePlayingState()) corrected++
+                if (it.isPlaying) actual++
+            }
+        }
+        val drift = counted - actual
+        Metrics.playingPlayersDrift.set(drift.toDouble())
+        if (corrected > 0 || drift != 0L) {
+            log.warn("Playing players count drifted by {}, corrected {} players", drift, corrected)
         }
     }
 }
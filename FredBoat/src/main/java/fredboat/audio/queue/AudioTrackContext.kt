@@ -116,11 +116,7 @@ open class AudioTrackContext(val track: AudioTrack, val member: Member, priority
     }
 
     fun i18n(key: String) = I18n.get(guildId).getString(key)!!
-    fun i18nFormat(key: String, vararg values: Any): String {
-        var str = i18n(key)
-        values.forEachIndexed { i, v -> str = str.replace("{$i}", v.toString()) }
-        return str
-    }
+    fun i18nFormat(key: String, vararg values: Any): String = I18n.getLocale(guildId).getRawTemplate(key).format(*values)
 
     companion object {
         private val log: Logger = LoggerFactory.getLogger(AudioTrackContext::class.java)
@@ -38,7 +38,7 @@ interface ITrackProvider {
     val isEmpty: Boolean
 
     /**
-     * @return duration of all tracks
+     * @return duration of all tracks, live streams are considered to have a length of 0
      */
     val durationMillis: Long
 
@@ -137,6 +137,11 @@ interface ITrackProvider {
      */
     fun streamsCount(): Int
 
+    /**
+     * @return amount of tracks in the queue that were added by the provided userId
+     */
+    fun userTrackCount(userId: Long): Int
+
     /**
      * @return false if any of the provided tracks was added by user that is not the provided userId
      */
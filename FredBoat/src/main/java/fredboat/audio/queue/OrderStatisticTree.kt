@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.queue
+
+import java.util.*
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * A treap where every node knows the size of its subtree, so that adding, removing and looking up elements by their
+ * index are all O(log n) on average.
+ *
+ * The comparator must impose a total order on the elements, no two elements of the tree may compare as equal.
+ *
+ * Not thread safe.
+ */
+class OrderStatisticTree<E>(private val comparator: Comparator<in E>) : Iterable<E> {
+
+    private class Node<E>(val value: E) {
+        val priority = ThreadLocalRandom.current().nextInt()
+        var left: Node<E>? = null
+        var right: Node<E>? = null
+        var size = 1
+    }
+
+    private var root: Node<E>? = null
+
+    val size: Int
+        get() = root?.size ?: 0
+
+    val isEmpty: Boolean
+        get() = root == null
+
+    fun add(element: E) {
+        root = insert(root, Node(element))
+    }
+
+    /**
+     * @return true if the element was part of this tree
+     */
+    fun remove(element: E): Boolean {
+        val sizeBefore = size
+        root = delete(root, element)
+        return size < sizeBefore
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    operator fun get(index: Int): E {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index: $index, Size: $size")
+        var node = root!!
+        var i = index
+        while (true) {
+            val leftSize = size(node.left)
+            node = when {
+                i < leftSize -> node.left!!
+                i == leftSize -> return node.value
+                else -> {
+                    i -= leftSize + 1
+                    node.right!!
+                }
+            }
+        }
+    }
+
+    fun first(): E? = if (isEmpty) null else get(0)
+
+    /**
+     * @return the elements from the inclusive start index to the exclusive end index, in order
+     */
+    fun range(fromIndex: Int, toIndex: Int): List<E> {
+        val result = ArrayList<E>(Math.max(0, toIndex - fromIndex))
+        collect(root, 0, fromIndex, toIndex, result)
+        return result
+    }
+
+    fun toList(): List<E> = range(0, size)
+
+    fun clear() {
+        root = null
+    }
+
+    override fun iterator(): Iterator<E> = toList().iterator()
+
+    private fun collect(node: Node<E>?, offset: Int, fromIndex: Int, toIndex: Int, result: MutableList<E>) {
+        if (node == null || offset >= toIndex || offset + node.size <= fromIndex) return
+        val index = offset + size(node.left)
+        collect(node.left, offset, fromIndex, toIndex, result)
+        if (index in fromIndex until toIndex) result.add(node.value)
+        collect(node.right, index + 1, fromIndex, toIndex, result)
+    }
+
+    private fun insert(node: Node<E>?, newNode: Node<E>): Node<E> {
+        if (node == null) return newNode
+        return if (comparator.compare(newNode.value, node.value) < 0) {
+            node.left = insert(node.left, newNode)
+            if (node.left!!.priority > node.priority) rotateRight(node) else update(node)
+        } else {
+            node.right = insert(node.right, newNode)
+            if (node.right!!.priority > node.priority) rotateLeft(node) else update(node)
+        }
+    }
+
+    private fun delete(node: Node<E>?, element: E): Node<E>? {
+        if (node == null) return null
+        val cmp = comparator.compare(element, node.value)
+        return when {
+            cmp < 0 -> {
+                node.left = delete(node.left, element)
+                update(node)
+            }
+            cmp > 0 -> {
+                node.right = delete(node.right, element)
+                update(node)
+            }
+            else -> merge(node.left, node.right)
+        }
+    }
+
+    private fun merge(left: Node<E>?, right: Node<E>?): Node<E>? {
+        if (left == null) return right
+        if (right == null) return left
+        return if (left.priority > right.priority) {
+            left.right = merge(left.right, right)
+            update(left)
+        } else {
+            right.left = merge(left, right.left)
+            update(right)
+        }
+    }
+
+    private fun rotateRight(node: Node<E>): Node<E> {
+        val pivot = node.left!!
+        node.left = pivot.right
+        pivot.right = update(node)
+        return update(pivot)
+    }
+
+    private fun rotateLeft(node: Node<E>): Node<E> {
+        val pivot = node.right!!
+        node.right = pivot.left
+        pivot.left = update(node)
+        return update(pivot)
+    }
+
+    private fun update(node: Node<E>): Node<E> {
+        node.size = 1 + size(node.left) + size(node.right)
+        return node
+    }
+
+    private fun size(node: Node<E>?) = node?.size ?: 0
+}
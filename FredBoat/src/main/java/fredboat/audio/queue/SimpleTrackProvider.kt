@@ -22,63 +22,54 @@
  * SOFTWARE.
  *
  */
-
 package fredboat.audio.queue
 
 import fredboat.definitions.RepeatMode
 import java.util.*
-import java.util.concurrent.ConcurrentLinkedDeque
 
+/**
+ * The queue is held in two [OrderStatisticTree]s over the same entries: one in regular order, and one in shuffled
+ * order, ranked by the random value of each track. Adding, removing and index based access are O(log n) regardless of
+ * whether shuffle is on or off.
+ *
+ * Total duration, amount of streams and tracks per user are kept up to date on every change of the queue, so reading
+ * them does not require walking the queue.
+ */
 class SimpleTrackProvider : AbstractTrackProvider() {
 
-    private val queue = ConcurrentLinkedDeque<AudioTrackContext>()
+    /**
+     * @param seq position in the regular order, decreasing for tracks added to the front, increasing for the back
+     * @param rank the random value of the track at the time it was added to the shuffled order
+     */
+    private class QueueEntry(val atc: AudioTrackContext, val seq: Long, var rank: Int)
+
+    private val regularOrder = OrderStatisticTree<QueueEntry>(Comparator { a, b -> java.lang.Long.compare(a.seq, b.seq) })
+    private val shuffledOrder = OrderStatisticTree<QueueEntry>(Comparator { a, b ->
+        val byRank = Integer.compare(a.rank, b.rank)
+        if (byRank != 0) byRank else java.lang.Long.compare(a.seq, b.seq)
+    })
+    private val byTrackId = HashMap<Long, QueueEntry>()
+    private var nextFirstSeq = -1L
+    private var nextLastSeq = 0L
+    private var totalDurationMillis = 0L
+    private var totalStreams = 0
+    private val tracksPerUser = HashMap<Long, Int>()
     private var lastTrack: AudioTrackContext? = null
-    private var cachedShuffledQueue: List<AudioTrackContext> = ArrayList()
-    private var shouldUpdateShuffledQueue = true
 
-    /**this override is needed because, related to the repeat all mode, turning shuffle off, skipping a track, turning shuffle
-     *   on will cause an incorrect playlist to show with the list command and may lead to a bug of an
-     *   IllegalStateException due to trying to play the same AudioTrack object twice */
+    private val playingOrder: OrderStatisticTree<QueueEntry>
+        get() = if (isShuffle) shuffledOrder else regularOrder
+
     override var isShuffle: Boolean
         get() = super.isShuffle
-        set(shuffle) {
+        @Synchronized set(shuffle) {
             super.isShuffle = shuffle
             if (shuffle) {
-                shouldUpdateShuffledQueue = true
-                queue.forEach { it.isPriority = false} // reset all priority tracks
+                regularOrder.forEach { it.atc.isPriority = false } // reset all priority tracks
             }
         }
 
-    /**
-     * Update the new queue
-     * adjust rand values so they are evenly spread out
-     * this will calculate a value between 0.0 < rand < 1.0 multiplied by the full integer range
-     */
     override val asListOrdered: List<AudioTrackContext>
-        @Synchronized get() {
-            if (!isShuffle) {
-                return asList
-            }
-
-            if (!shouldUpdateShuffledQueue) {
-                return cachedShuffledQueue
-            }
-
-            val newList = ArrayList<AudioTrackContext>()
-            newList.addAll(asList)
-
-            newList.sort()
-            val size = newList.size
-            for ((i, atc) in newList.withIndex()) {
-                val rand = ((i / (size + 1.0) + 1.0 / (size + 1.0)) * Integer.MAX_VALUE).toInt()
-                atc.rand = if (atc.isPriority) Integer.MIN_VALUE else rand
-            }
-
-            cachedShuffledQueue = newList
-
-            shouldUpdateShuffledQueue = false
-            return newList
-        }
+        @Synchronized get() = playingOrder.toList().map { it.atc }
 
     override fun skipped() {
         lastTrack = null
@@ -88,6 +79,7 @@ class SimpleTrackProvider : AbstractTrackProvider() {
         this.lastTrack = lastTrack
     }
 
+    @Synchronized
     override fun provideAudioTrack(): AudioTrackContext? {
         if (repeatMode == RepeatMode.SINGLE && lastTrack != null) {
             return lastTrack!!.makeClone()
@@ -98,159 +90,177 @@ class SimpleTrackProvider : AbstractTrackProvider() {
             clone.isPriority = false
             if (isShuffle) {
                 clone.rand = Integer.MAX_VALUE //put it at the back of the shuffled queue
-                shouldUpdateShuffledQueue = true
             }
-            queue.add(clone)
+            addLast(clone)
         }
-        if (isShuffle) {
-            val list = asListOrdered
-
-            if (list.isEmpty()) {
-                return null
-            }
-
-            shouldUpdateShuffledQueue = true
-            lastTrack = list[0]
-            queue.remove(lastTrack)
-            return lastTrack
-        } else {
-            lastTrack = queue.poll()
-            return lastTrack
+        val next = playingOrder.first()
+        if (next == null) {
+            if (!isShuffle) lastTrack = null
+            return null
         }
+
+        removeEntry(next)
+        lastTrack = next.atc
+        return lastTrack
     }
 
+    @Synchronized
     override fun remove(atc: AudioTrackContext): Boolean {
-        return if (queue.remove(atc)) {
-            shouldUpdateShuffledQueue = true
-            true
-        } else {
-            false
-        }
+        val entry = byTrackId[atc.trackId]
+        if (entry == null || entry.atc != atc) return false
+        removeEntry(entry)
+        return true
     }
 
+    @Synchronized
     override fun removeAll(tracks: Collection<AudioTrackContext>) {
-        if (queue.removeAll(tracks)) {
-            shouldUpdateShuffledQueue = true
-        }
+        tracks.forEach { remove(it) }
     }
 
+    @Synchronized
     override fun removeAllById(trackIds: Collection<Long>) {
-        queue.removeIf { audioTrackContext -> trackIds.contains(audioTrackContext.trackId) }
-        shouldUpdateShuffledQueue = true
+        for (trackId in trackIds) {
+            byTrackId[trackId]?.let { removeEntry(it) }
+        }
     }
 
+    @Synchronized
     override fun getTrack(index: Int): AudioTrackContext {
-        return asListOrdered[index]
+        return playingOrder[index].atc
     }
 
     /**
      * Returns all songs inclusively from one index till the another in a non-bitching way.
      */
     @Suppress("NAME_SHADOWING")
+    @Synchronized
     override fun getTracksInRange(startIndex: Int, endIndex: Int): List<AudioTrackContext> {
 
         //make sure startIndex <= endIndex
         val startIndex = if (startIndex < endIndex) startIndex else endIndex
         val endIndex = if (startIndex < endIndex) endIndex else startIndex
 
-        //Collect tracks between the two indices
-        var i = 0
-        val result = ArrayList<AudioTrackContext>()
-        for (atc in asListOrdered) {
-            if (i in startIndex..(endIndex - 1))
-                result.add(atc)
-            i++
-            if (i >= endIndex) break//abort early if we're done
-        }
-
-        //trigger shuffle queue update if we found tracks to remove
-        if (result.size > 0) shouldUpdateShuffledQueue = true
-        return result
+        val from = Math.max(0, startIndex)
+        val to = Math.min(endIndex, byTrackId.size)
+        if (from >= to) return emptyList()
+        return playingOrder.range(from, to).map { it.atc }
     }
 
     override val asList: List<AudioTrackContext>
-        get() = queue.toList()
+        @Synchronized get() = regularOrder.toList().map { it.atc }
 
     @Synchronized
     override fun reshuffle() {
-        queue.forEach {
-            it.randomize()
-            it.isPriority = false
+        shuffledOrder.clear()
+        for (entry in regularOrder) {
+            entry.rank = entry.atc.randomize()
+            entry.atc.isPriority = false
+            shuffledOrder.add(entry)
         }
-        shouldUpdateShuffledQueue = true
     }
 
     override val isEmpty: Boolean
-        get() = queue.isEmpty()
+        @Synchronized get() = byTrackId.isEmpty()
 
+    @Synchronized
     override fun size(): Int {
-        return queue.size
+        return byTrackId.size
     }
 
+    @Synchronized
     override fun add(track: AudioTrackContext) {
-        shouldUpdateShuffledQueue = true
-        queue.add(track)
+        addLast(track)
     }
 
+    @Synchronized
     override fun addAll(tracks: Collection<AudioTrackContext>) {
-        shouldUpdateShuffledQueue = true
-        queue.addAll(tracks)
+        tracks.forEach { addLast(it) }
     }
 
+    @Synchronized
     override fun addFirst(track: AudioTrackContext) {
-        shouldUpdateShuffledQueue = true
         track.rand = Integer.MIN_VALUE
-        queue.addFirst(track)
+        addEntry(QueueEntry(track, nextFirstSeq--, track.rand))
     }
 
+    @Synchronized
     override fun addAllFirst(tracks: Collection<AudioTrackContext>) {
-        shouldUpdateShuffledQueue = true
-        tracks.reversed().forEach {
-            it.rand = Integer.MIN_VALUE
-            queue.addFirst(it) }
+        tracks.reversed().forEach { addFirst(it) }
     }
 
+    @Synchronized
     override fun clear() {
         lastTrack = null
-        shouldUpdateShuffledQueue = true
-        queue.clear()
+        regularOrder.clear()
+        shuffledOrder.clear()
+        byTrackId.clear()
+        totalDurationMillis = 0
+        totalStreams = 0
+        tracksPerUser.clear()
     }
 
     override val durationMillis: Long
-        get() {
-            var duration: Long = 0
-            for (atc in queue) {
-                if (!atc.track.info.isStream) {
-                    duration += atc.effectiveDuration
-                }
-            }
-            return duration
-        }
+        @Synchronized get() = totalDurationMillis
 
+    @Synchronized
     override fun streamsCount(): Int {
-        var streams = 0
-        for (atc in queue) {
-            if (atc.track.info.isStream) {
-                streams++
-            }
-        }
-        return streams
+        return totalStreams
     }
 
+    @Synchronized
+    override fun userTrackCount(userId: Long): Int {
+        return tracksPerUser[userId] ?: 0
+    }
+
+    @Synchronized
     override fun peek(): AudioTrackContext? {
-        return if (isShuffle && queue.size > 0) {
-            asListOrdered[0]
-        } else {
-            queue.peek()
-        }
+        return playingOrder.first()?.atc
     }
 
+    @Synchronized
     override fun isUserTrackOwner(userId: Long, trackIds: Collection<Long>): Boolean {
-        for (atc in asListOrdered) {
-            if (trackIds.contains(atc.trackId) && atc.userId != userId) {
+        if (userTrackCount(userId) == byTrackId.size) {
+            return true
+        }
+        for (trackId in trackIds) {
+            val entry = byTrackId[trackId] ?: continue
+            if (entry.atc.userId != userId) {
                 return false
             }
         }
         return true
     }
+
+    private fun addLast(track: AudioTrackContext) {
+        addEntry(QueueEntry(track, nextLastSeq++, track.rand))
+    }
+
+    private fun addEntry(entry: QueueEntry) {
+        //track ids are random longs; should one ever repeat, the older track is replaced
+        byTrackId[entry.atc.trackId]?.let { removeEntry(it) }
+        byTrackId[entry.atc.trackId] = entry
+        regularOrder.add(entry)
+        shuffledOrder.add(entry)
+        updateAggregates(entry.atc, 1)
+    }
+
+    private fun removeEntry(entry: QueueEntry) {
+        byTrackId.remove(entry.atc.trackId)
+        regularOrder.remove(entry)
+        shuffledOrder.remove(entry)
+        updateAggregates(entry.atc, -1)
+    }
+
+    /**
+     * @param sign 1 if the track was added to the queue, -1 if it was removed
+     */
+    private fun updateAggregates(atc: AudioTrackContext, sign: Int) {
+        if (atc.track.info.isStream) {
+            totalStreams += sign
+        } else {
+            totalDurationMillis += sign * atc.effectiveDuration
+        }
+        val userTracks = (tracksPerUser[atc.userId] ?: 0) + sign
+        if (userTracks > 0) tracksPerUser[atc.userId] = userTracks else tracksPerUser.remove(atc.userId)
+    }
 }
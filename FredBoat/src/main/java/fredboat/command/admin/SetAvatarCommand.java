@@ -7,6 +7,7 @@ import com.google.common.collect.Maps;
 import fredboat.command.info.HelpCommand;
 import fredboat.commandmeta.MessagingException;
 import fredboat.commandmeta.abs.CommandContext;
+import fredboat.commandmeta.abs.IBlockingCommand;
 import fredboat.commandmeta.abs.ICommandRestricted;
 import fredboat.commandmeta.abs.JCommand;
 import fredboat.definitions.PermissionLevel;
@@ -32,7 +33,7 @@ import java.util.Map;
 /**
  * This command allows a bot admin to change the avatar of FredBoat
  */
-public class SetAvatarCommand extends JCommand implements ICommandRestricted {
+public class SetAvatarCommand extends JCommand implements ICommandRestricted, IBlockingCommand {
 
     private static final Logger log = LoggerFactory.getLogger(SetAvatarCommand.class);
 
@@ -26,6 +26,7 @@
 package fredboat.command.fun;
 
 import fredboat.commandmeta.abs.CommandContext;
+import fredboat.commandmeta.abs.IBlockingCommand;
 import fredboat.commandmeta.abs.IFunCommand;
 import fredboat.commandmeta.abs.JCommand;
 import fredboat.main.BotController;
@@ -41,7 +42,7 @@ import java.io.IOException;
 
 import static fredboat.main.LauncherKt.getBotController;
 
-public class JokeCommand extends JCommand implements IFunCommand {
+public class JokeCommand extends JCommand implements IFunCommand, IBlockingCommand {
 
     private static final Logger log = LoggerFactory.getLogger(JokeCommand.class);
 
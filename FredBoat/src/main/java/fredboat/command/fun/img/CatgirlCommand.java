@@ -26,6 +26,7 @@
 package fredboat.command.fun.img;
 
 import fredboat.commandmeta.abs.CommandContext;
+import fredboat.commandmeta.abs.IBlockingCommand;
 import fredboat.commandmeta.abs.IFunCommand;
 import fredboat.commandmeta.abs.JCommand;
 import fredboat.main.BotController;
@@ -36,7 +37,7 @@ import java.io.IOException;
 
 import static fredboat.main.LauncherKt.getBotController;
 
-public class CatgirlCommand extends JCommand implements IFunCommand {
+public class CatgirlCommand extends JCommand implements IFunCommand, IBlockingCommand {
 
     private static final String BASE_URL = "https://nekos.life/api/neko";
 
@@ -59,7 +59,7 @@ class CommandsCommand(name: String, vararg aliases: String) : Command(name, *ali
     override suspend fun invoke(context: CommandContext) {
         if (!context.hasArguments()) {
 
-            val enabledModules = context.enabledModules.toMutableList()
+            val enabledModules = context.enabledModules().toMutableList()
             if (!PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
                 enabledModules.remove(Module.ADMIN)// Don't show admin commands/modules for non admins
             }
@@ -108,7 +108,7 @@ class PlayCommand(private val playerLimiter: PlayerLimiter, private val trackSea
                     .replace(";;play", context.prefix + context.command.name))
         } else if (player.isPlaying && !isPriority) {
             context.reply(context.i18n("playAlreadyPlaying"))
-        } else if (player.humanUsersInCurrentVC.isEmpty() && context.guild.selfMember.voiceChannel != null) {
+        } else if (player.humanUsersInCurrentVCCount == 0 && context.guild.selfMember.voiceChannel != null) {
             context.reply(context.i18n("playVCEmpty"))
         } else if (context.guild.selfMember.voiceChannel == null) {
             // When we just want to continue playing, but the user is not in a VC
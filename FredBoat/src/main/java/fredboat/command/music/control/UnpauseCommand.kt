@@ -45,7 +45,7 @@ class UnpauseCommand(name: String, vararg aliases: String) : Command(name, *alia
             context.reply(context.i18n("unpauseQueueEmpty"))
         } else if (!player.isPaused) {
             context.reply(context.i18n("unpausePlayerNotPaused"))
-        } else if (player.humanUsersInCurrentVC.isEmpty() && player.isPaused && guild.selfMember.voiceChannel != null) {
+        } else if (player.humanUsersInCurrentVCCount == 0 && player.isPaused && guild.selfMember.voiceChannel != null) {
             context.reply(context.i18n("unpauseNoUsers"))
         } else if (guild.selfMember.voiceChannel == null) {
             // When we just want to continue playing, but the user is not in a VC
@@ -45,7 +45,7 @@ class VoteSkipCommand(name: String, vararg aliases: String, private val isUnvote
         if (!context.hasArguments()) {
             val response = if (isUnvote) removeVoteWithResponse(context) else addVoteWithResponse(context)
 
-            val actualMinSkip = if (player.humanUsersInCurrentVC.size < 3) 1.0f else MIN_SKIP_PERCENTAGE
+            val actualMinSkip = if (player.humanUsersInCurrentVCCount < 3) 1.0f else MIN_SKIP_PERCENTAGE
 
             val skipPercentage = getSkipPercentage(context.guild, player)
             if (skipPercentage >= actualMinSkip) {
@@ -160,7 +160,7 @@ class VoteSkipCommand(name: String, vararg aliases: String, private val isUnvote
             }
         }
         context.reply(coloredEmbed {
-            title = context.i18nFormat("voteSkipEmbedVoters", voters.size, player.humanUsersInCurrentVC.size)
+            title = context.i18nFormat("voteSkipEmbedVoters", voters.size, player.humanUsersInCurrentVCCount)
             field("", field1.toString(), true)
             field("", field2.toString(), true)
         })
@@ -5,6 +5,7 @@ import com.fredboat.sentinel.entities.footer
 import fredboat.command.info.HelpCommand
 import fredboat.commandmeta.abs.Command
 import fredboat.commandmeta.abs.CommandContext
+import fredboat.commandmeta.abs.IBlockingCommand
 import fredboat.commandmeta.abs.IUtilCommand
 import fredboat.messaging.internal.Context
 import fredboat.util.rest.APILimitException
@@ -13,7 +14,7 @@ import fredboat.util.rest.models.weather.RetrievedWeather
 import java.text.MessageFormat
 
 class WeatherCommand(private val weather: Weather, name: String, vararg aliases: String)
-    : Command(name, *aliases), IUtilCommand {
+    : Command(name, *aliases), IUtilCommand, IBlockingCommand {
 
     override suspend fun invoke(context: CommandContext) {
 
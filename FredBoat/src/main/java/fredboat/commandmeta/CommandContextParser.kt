@@ -29,6 +29,7 @@ import fredboat.command.config.PrefixCommand
 import fredboat.commandmeta.abs.CommandContext
 import fredboat.config.idString
 import fredboat.config.property.AppConfig
+import fredboat.feature.metrics.CommandTrace
 import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Message
 import fredboat.sentinel.RawUser
@@ -38,7 +39,6 @@ import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
 import java.util.*
-import java.util.regex.Pattern
 
 /**
  * Created by napster on 23.02.18.
@@ -53,9 +53,47 @@ class CommandContextParser(
     companion object {
         private val log = LoggerFactory.getLogger(CommandContext::class.java)
 
-        // https://regex101.com/r/ceFMeF/6
-        //group 1 is the mention, group 2 is the id of the mention, group 3 is the rest of the input including new lines
-        private val MENTION_PREFIX = Pattern.compile("^(<@!?([0-9]+)>)(.*)$", Pattern.DOTALL)
+        /**
+         * Single pass equivalent of matching `^<@!?([0-9]+)>(.*)$` against the content and comparing the id group with
+         * the provided id.
+         *
+         * @return the index right after the closing `>` of a leading mention of the provided id, or -1 if the content
+         * does not start with such a mention
+         */
+        fun mentionPrefixEnd(content: String, id: String): Int {
+            if (!content.startsWith("<@")) return -1
+            var i = 2
+            if (i < content.length && content[i] == '!') i++
+            val idStart = i
+            while (i < content.length && content[i] in '0'..'9') i++
+            if (i == idStart || i >= content.length || content[i] != '>') return -1
+            if (i - idStart != id.length || !content.regionMatches(idStart, id, 0, id.length)) return -1
+            return i + 1
+        }
+
+        /**
+         * Same result as `input.split("\\p{javaSpaceChar}+".toRegex()).dropLastWhile { it.isEmpty() }`, without
+         * compiling a regex for every message.
+         */
+        fun splitArgs(input: String): Array<String> {
+            val args = ArrayList<String>()
+            var tokenStart = 0
+            var i = 0
+            while (i < input.length) {
+                if (Character.isSpaceChar(input[i])) {
+                    args.add(input.substring(tokenStart, i))
+                    while (i < input.length && Character.isSpaceChar(input[i])) i++
+                    tokenStart = i
+                } else {
+                    i++
+                }
+            }
+            args.add(input.substring(tokenStart))
+            while (args.isNotEmpty() && args[args.size - 1].isEmpty()) {
+                args.removeAt(args.size - 1)
+            }
+            return args.toTypedArray()
+        }
     }
 
     /**
@@ -65,14 +103,13 @@ class CommandContextParser(
         val content = event.content
         var input: String
         var isMention = false
-        val mentionMatcher = MENTION_PREFIX.matcher(content)
         // either starts with a mention of us
-        val botId = selfUser.idString
-        if (mentionMatcher.find() && mentionMatcher.group(2) == botId) {
-            input = mentionMatcher.group(3).trim { it <= ' ' }
+        val mentionEnd = mentionPrefixEnd(content, selfUser.idString)
+        if (mentionEnd >= 0) {
+            input = content.substring(mentionEnd).trim { it <= ' ' }
             isMention = true
         } else {
-            val prefix = PrefixCommand.giefPrefix(event.guild)
+            val prefix = PrefixCommand.awaitPrefix(event.guild)
             val defaultPrefix = appConfig.prefix
             if (content.startsWith(prefix)) {
                 input = content.substring(prefix.length)
@@ -102,8 +139,8 @@ class CommandContextParser(
             }
         }
 
-        // the \p{javaSpaceChar} instead of the better known \s is used because it actually includes unicode whitespaces
-        val args = input.split("\\p{javaSpaceChar}+".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
+        // split on \p{javaSpaceChar} instead of the better known \s because it actually includes unicode whitespaces
+        val args = splitArgs(input)
         if (args.isEmpty()) {
             return null //while this shouldn't technically be possible due to the preprocessing of the input, better be safe than throw exceptions
         }
@@ -115,7 +152,9 @@ class CommandContextParser(
             log.info("Unknown command:\t{}", commandTrigger)
             return null
         } else {
-            val guild = getGuildMono(event.guild, textChannelInvoked = event.channel).retry(1).awaitFirstOrNull()
+            val guildMono = getGuildMono(event.guild, textChannelInvoked = event.channel).retry(1)
+            val guild = (CommandTrace.current()?.measure(CommandTrace.Stage.GUILD_FETCH, guildMono) ?: guildMono)
+                    .awaitFirstOrNull()
                     ?: throw RuntimeException("Guild ${event.guild} doesn't seem to exist")
             val channel = guild.getTextChannel(event.channel) ?: throw RuntimeException("Channel was sent in null channel")
             val member = guild.getMember(event.author) ?: throw RuntimeException("Unknown message author")
@@ -128,7 +167,7 @@ class CommandContextParser(
                     isMention,
                     commandTrigger,
                     Arrays.copyOfRange(args, 1, args.size), //exclude args[0] that contains the command trigger
-                    input.replaceFirst(commandTrigger.toRegex(), "").trim { it <= ' ' },
+                    input.substring(commandTrigger.length).trim { it <= ' ' }, //input always starts with the trigger
                     command)
         }
     }
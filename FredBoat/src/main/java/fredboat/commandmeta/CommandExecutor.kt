@@ -0,0 +1,195 @@
+package fredboat.commandmeta
+
+import fredboat.commandmeta.abs.Command
+import fredboat.commandmeta.abs.CommandContext
+import fredboat.commandmeta.abs.IBlockingCommand
+import fredboat.commandmeta.abs.IConfigCommand
+import fredboat.commandmeta.abs.IMusicCommand
+import fredboat.feature.metrics.Metrics
+import fredboat.feature.metrics.collectors.ThreadPoolCollector
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import kotlinx.coroutines.CoroutineExceptionHandler
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+import java.util.ArrayDeque
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Runs commands on two bounded pools: one for commands that only compute or suspend, and one for commands that block
+ * their thread on lavaplayer, the backend or some http request. A burst of slow commands can then only exhaust the
+ * blocking pool, instead of the threads every other command runs on.
+ *
+ * Each guild has at most [maxRunningPerGuild] commands in flight. Further commands of the guild wait in a queue of
+ * their own and are only handed to the pool once one of the guild's commands completed, so a single guild can't fill
+ * a pool. Commands are rejected once [maxQueued] commands of a pool or [maxQueuedPerGuild] commands of a guild are
+ * waiting.
+ */
+@Component
+class CommandExecutor(
+        threadPoolCollector: ThreadPoolCollector,
+        cpuThreads: Int,
+        ioThreads: Int,
+        private val maxRunningPerGuild: Int,
+        private val maxQueuedPerGuild: Int,
+        private val maxQueued: Int
+) : DisposableBean {
+
+    @Autowired
+    constructor(threadPoolCollector: ThreadPoolCollector) : this(threadPoolCollector,
+            Runtime.getRuntime().availableProcessors(), IO_THREADS,
+            MAX_RUNNING_PER_GUILD, MAX_QUEUED_PER_GUILD, MAX_QUEUED)
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(CommandExecutor::class.java)
+        const val IO_THREADS = 64
+        const val MAX_RUNNING_PER_GUILD = 3
+        const val MAX_QUEUED_PER_GUILD = 10
+        const val MAX_QUEUED = 500
+
+        /** @return true if the command blocks its thread while executing */
+        fun isBlocking(command: Command) =
+                command is IBlockingCommand || command is IMusicCommand || command is IConfigCommand
+    }
+
+    private val cpu = Pool("cpu", cpuThreads, threadPoolCollector)
+    private val io = Pool("io", ioThreads, threadPoolCollector)
+    /** Guilds with commands in flight, guarded by itself */
+    private val guilds = Long2ObjectOpenHashMap<GuildQueue>()
+
+    /**
+     * Launches work that only suspends, like parsing a message, on the cpu pool. This is not limited like commands are.
+     */
+    fun launch(context: CoroutineContext = EmptyCoroutineContext, block: suspend CoroutineScope.() -> Unit): Job =
+            cpu.scope.launch(context, block = block)
+
+    /**
+     * Executes the command of the context on its pool, or replies that we are too busy if too many commands are queued.
+     *
+     * @return false if the command was rejected
+     */
+    fun execute(context: CommandContext, block: suspend () -> Unit): Boolean {
+        val accepted = execute(context.guild.id, isBlocking(context.command), block)
+        if (!accepted) {
+            log.info("Rejected command {} of guild {}, too many commands are queued",
+                    context.command.name, context.guild.id)
+            context.reply(context.i18n("commandsBusy"))
+        }
+        return accepted
+    }
+
+    /**
+     * @param blocking whether to run the block on the pool of blocking commands
+     * @return false if the block was rejected
+     */
+    fun execute(guildId: Long, blocking: Boolean, block: suspend () -> Unit): Boolean {
+        val pool = if (blocking) io else cpu
+        val task = Task(pool, guildId, block)
+        synchronized(guilds) {
+            val queue = guilds.get(guildId)
+            if (queue != null && queue.waiting.size >= maxQueuedPerGuild) {
+                pool.rejectedByGuild.inc()
+                return false
+            }
+            if (pool.queued >= maxQueued) {
+                pool.rejectedByPool.inc()
+                return false
+            }
+
+            pool.onQueued()
+            if (queue == null) {
+                guilds.put(guildId, GuildQueue(1))
+                start(task)
+            } else if (queue.running < maxRunningPerGuild) {
+                queue.running++
+                start(task)
+            } else {
+                queue.waiting.add(task)
+            }
+        }
+        return true
+    }
+
+    /** @return the number of commands waiting in the pool */
+    fun queued(blocking: Boolean) = synchronized(guilds) { (if (blocking) io else cpu).queued }
+
+    private fun start(task: Task) {
+        task.pool.scope.launch {
+            task.pool.onStarted()
+            try {
+                task.block()
+            } finally {
+                task.pool.onFinished()
+                onFinished(task.guildId)
+            }
+        }
+    }
+
+    private fun onFinished(guildId: Long) {
+        synchronized(guilds) {
+            val queue = guilds.get(guildId) ?: return
+            val next = queue.waiting.poll()
+            if (next != null) {
+                start(next) // Takes over the slot of the finished command
+            } else if (queue.running > 1) {
+                queue.running--
+            } else {
+                guilds.remove(guildId)
+            }
+        }
+    }
+
+    override fun destroy() {
+        cpu.executor.shutdown()
+        io.executor.shutdown()
+    }
+
+    private class Task(val pool: Pool, val guildId: Long, val block: suspend () -> Unit)
+
+    private class GuildQueue(var running: Int) {
+        val waiting = ArrayDeque<Task>()
+    }
+
+    private inner class Pool(name: String, threads: Int, threadPoolCollector: ThreadPoolCollector) {
+        val executor = ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                ThreadFactory { Thread(it, "command-$name").apply { isDaemon = true } })
+                .apply { allowCoreThreadTimeOut(true) }
+        val scope = CoroutineScope(SupervisorJob() + executor.asCoroutineDispatcher()
+                + CoroutineExceptionHandler { _, e -> log.error("Caught exception while executing a command", e) })
+        /** Guarded by [guilds] */
+        var queued = 0
+        private val queuedGauge = Metrics.commandsQueued.labels(name)
+        private val activeGauge = Metrics.commandsActive.labels(name)
+        val rejectedByPool = Metrics.commandsRejected.labels(name, "pool")!!
+        val rejectedByGuild = Metrics.commandsRejected.labels(name, "guild")!!
+
+        init {
+            threadPoolCollector.addPool("command-$name", executor)
+        }
+
+        fun onQueued() {
+            queued++
+            queuedGauge.inc()
+        }
+
+        fun onStarted() {
+            synchronized(guilds) { queued-- }
+            queuedGauge.dec()
+            activeGauge.inc()
+        }
+
+        fun onFinished() = activeGauge.dec()
+    }
+}
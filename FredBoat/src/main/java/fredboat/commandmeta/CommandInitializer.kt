@@ -130,7 +130,7 @@ class CommandInitializer(cacheMetrics: CacheMetricsCollector, weather: Weather,
         configModule.registerCommand(ConfigCommand(CONFIG_COMM_NAME, "cfg"))
         configModule.registerCommand(LanguageCommand(LANGUAGE_COMM_NAME, "lang"))
         configModule.registerCommand(ModulesCommand("modules", "module", "mods"))
-        configModule.registerCommand(PrefixCommand(cacheMetrics, PREFIX_COMM_NAME, "pre"))
+        configModule.registerCommand(PrefixCommand(PREFIX_COMM_NAME, "pre"))
         /* Perms */
         configModule.registerCommand(PermissionsCommand(PermissionLevel.ADMIN, "admin", "admins"))
         configModule.registerCommand(PermissionsCommand(PermissionLevel.DJ, "dj", "djs"))
@@ -0,0 +1,111 @@
+package fredboat.commandmeta
+
+import fredboat.config.idString
+import fredboat.config.property.AppConfig
+import fredboat.sentinel.RawUser
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.stereotype.Component
+
+/**
+ * Cheap check of whether a guild message could be a command at all, done before the message is parsed.
+ *
+ * Knows the prefix of every guild whose prefix was loaded from the backend. A message can only be a command if it
+ * starts with the prefix of its guild, the default prefix (for the help and prefix commands) or a mention of us. Messages
+ * of guilds whose prefix is not known yet always pass, since parsing them is what loads the prefix.
+ *
+ * Changing a prefix makes us [forget] it. Loads that were already underway by then may return the old prefix, so loads
+ * pass the [generation] of the guild from when they started, and the prefix is only taken if no [forget] happened since.
+ *
+ * Prefixes can also be changed by other processes, which we only learn about by loading them again. Prefixes older than
+ * [expireMillis] let all messages pass again, and parsing those messages refreshes the prefix cache, which loads the
+ * prefix again. Guilds we left or unsubscribed from are [remove]d.
+ *
+ * The prefixes are kept in a few striped primitive maps, so that looking one up neither boxes the guild id nor
+ * contends with the other dispatcher threads.
+ */
+@Component
+class CommandPrefixFilter(
+        appConfig: AppConfig,
+        selfUser: RawUser,
+        private val expireMillis: Long
+) {
+
+    @Autowired
+    constructor(appConfig: AppConfig, @Qualifier("selfUser") selfUser: RawUser)
+            : this(appConfig, selfUser, EXPIRE_MILLIS)
+
+    companion object {
+        private const val STRIPES = 16
+        /** Same as the refresh time of the prefix cache, see [fredboat.db.rest.MonoCache.refreshAhead] */
+        const val EXPIRE_MILLIS = 60_000L
+    }
+
+    private class Entry(val prefix: String, val loadedAt: Long)
+
+    private val defaultPrefix = appConfig.prefix
+    private val selfId = selfUser.idString
+    private val stripes = Array(STRIPES) { Long2ObjectOpenHashMap<Entry>() }
+    /** Guild id -> how often its prefix has been forgotten. Guarded by the stripe of the same index */
+    private val generations = Array(STRIPES) { Long2IntOpenHashMap() }
+
+    /** Number of guilds whose prefix is known */
+    val size: Int
+        get() = stripes.sumBy { synchronized(it) { it.size } }
+
+    /** @return false if the message can't possibly be a command */
+    fun isPossibleCommand(guildId: Long, content: String): Boolean {
+        if (content.startsWith(defaultPrefix)) return true
+        if (CommandContextParser.mentionPrefixEnd(content, selfId) >= 0) return true
+        val stripe = stripe(guildId)
+        val entry = synchronized(stripe) { stripe.get(guildId) } ?: return true
+        if (System.currentTimeMillis() - entry.loadedAt >= expireMillis) return true
+        return content.startsWith(entry.prefix)
+    }
+
+    /** @return the current generation of the guild, to be passed to [onPrefixLoaded] by a load that starts now */
+    fun generation(guildId: Long): Int {
+        val i = stripeIndex(guildId)
+        return synchronized(stripes[i]) { generations[i].get(guildId) }
+    }
+
+    /**
+     * @param prefix the custom prefix of the guild, or null if the guild uses the default prefix
+     * @param generation the [generation] of the guild from before the prefix was loaded
+     */
+    fun onPrefixLoaded(guildId: Long, prefix: String?, generation: Int) {
+        val i = stripeIndex(guildId)
+        synchronized(stripes[i]) {
+            // The prefix was changed while this one was being loaded
+            if (generations[i].get(guildId) != generation) return
+            stripes[i].put(guildId, Entry(prefix ?: defaultPrefix, System.currentTimeMillis()))
+        }
+    }
+
+    /** Lets all messages of the guild pass until its prefix is loaded again */
+    fun forget(guildId: Long) {
+        val i = stripeIndex(guildId)
+        synchronized(stripes[i]) {
+            stripes[i].remove(guildId)
+            generations[i].addTo(guildId, 1)
+        }
+    }
+
+    /**
+     * Drops everything we know about the guild. A load that is underway may still put its prefix back, which then expires
+     * like any other.
+     */
+    fun remove(guildId: Long) {
+        val i = stripeIndex(guildId)
+        synchronized(stripes[i]) {
+            stripes[i].remove(guildId)
+            generations[i].remove(guildId)
+        }
+    }
+
+    private fun stripe(guildId: Long) = stripes[stripeIndex(guildId)]
+
+    private fun stripeIndex(guildId: Long) = java.lang.Long.hashCode(guildId) and (STRIPES - 1)
+}
@@ -38,8 +38,15 @@ public class CommandRegistry {
 
     private static Map<Module, CommandRegistry> modules = new HashMap<>();
 
+    //flat name/alias -> command index across all modules, rebuilt whenever registrations change
+    @Nullable
+    private static volatile LookupIndex lookupIndex = null;
+
     public static void registerModule(@Nonnull CommandRegistry registry) {
-        modules.put(registry.module, registry);
+        synchronized (CommandRegistry.class) {
+            modules.put(registry.module, registry);
+            lookupIndex = null;
+        }
     }
 
     @Nonnull
@@ -53,11 +60,30 @@ public class CommandRegistry {
 
     @Nullable
     public static Command findCommand(@Nonnull String name) {
-        return modules.values().stream()
-                .map(cr -> cr.getCommand(name))
-                .filter(Objects::nonNull)
-                .findAny()
-                .orElse(null);
+        return getLookupIndex().commands.get(name);
+    }
+
+    /**
+     * @return true if the module cannot be disabled by users, meaning commands of it may be executed without looking
+     * up the enabled modules of a guild.
+     */
+    public static boolean isAlwaysEnabled(@Nonnull Module module) {
+        return (getLookupIndex().alwaysEnabledModules & (1 << module.ordinal())) != 0;
+    }
+
+    @Nonnull
+    private static LookupIndex getLookupIndex() {
+        LookupIndex index = lookupIndex;
+        if (index == null) {
+            synchronized (CommandRegistry.class) {
+                index = lookupIndex;
+                if (index == null) {
+                    index = new LookupIndex(modules.values());
+                    lookupIndex = index;
+                }
+            }
+        }
+        return index;
     }
 
     public static int getTotalSize() {
@@ -82,12 +108,15 @@ public class CommandRegistry {
     }
 
     public void registerCommand(@Nonnull Command command) {
-        String name = command.getName().toLowerCase();
-        registry.put(name, command);
-        for (String alias : command.getAliases()) {
-            registry.put(alias.toLowerCase(), command);
+        synchronized (CommandRegistry.class) {
+            String name = command.getName().toLowerCase();
+            registry.put(name, command);
+            for (String alias : command.getAliases()) {
+                registry.put(alias.toLowerCase(), command);
+            }
+            command.setModule(this.module);
+            lookupIndex = null;
         }
-        command.setModule(this.module);
     }
 
     //may contain duplicates, if a command was added additional aliases
@@ -134,4 +163,29 @@ public class CommandRegistry {
         }
         return null;
     }
+
+    /**
+     * Immutable snapshot of all registered commands, so that looking up a command is a single hash probe instead of
+     * iterating over every module registry.
+     */
+    private static class LookupIndex {
+        private final Map<String, Command> commands;
+        //bit n is set if the module with ordinal n is registered and locked
+        private final int alwaysEnabledModules;
+
+        private LookupIndex(Collection<CommandRegistry> registries) {
+            Map<String, Command> commands = new HashMap<>();
+            int alwaysEnabled = 0;
+            for (CommandRegistry cr : registries) {
+                for (Map.Entry<String, Command> entry : cr.registry.entrySet()) {
+                    commands.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+                if (cr.module.isLockedModule()) {
+                    alwaysEnabled |= 1 << cr.module.ordinal();
+                }
+            }
+            this.commands = commands;
+            this.alwaysEnabledModules = alwaysEnabled;
+        }
+    }
 }
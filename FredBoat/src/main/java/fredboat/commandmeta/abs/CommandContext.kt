@@ -29,6 +29,7 @@ import fredboat.definitions.Module
 import fredboat.main.Launcher
 import fredboat.messaging.internal.Context
 import fredboat.sentinel.*
+import kotlinx.coroutines.reactive.awaitSingle
 
 /**
  * Convenience container for values associated with an issued command
@@ -65,8 +66,8 @@ class CommandContext(
             }
         }
 
-    val enabledModules: Collection<Module>
-        get() = Launcher.botController.guildModulesService.fetchGuildModules(this.guild).enabledModules
+    suspend fun enabledModules(): Collection<Module> = Launcher.botController.guildModulesService
+            .fetchGuildModulesMono(this.guild).awaitSingle().enabledModules
 
     override val user: User
         get() = member.user
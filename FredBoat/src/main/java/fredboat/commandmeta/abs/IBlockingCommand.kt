@@ -0,0 +1,9 @@
+package fredboat.commandmeta.abs
+
+/**
+ * Classifies a command as blocking its thread while executing, for example on a http request. These commands are run
+ * on the blocking pool of the [fredboat.commandmeta.CommandExecutor].
+ *
+ * Music and config commands are always considered blocking, as they wait on lavaplayer and the backend.
+ */
+interface IBlockingCommand
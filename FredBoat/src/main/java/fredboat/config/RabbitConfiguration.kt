@@ -29,6 +29,11 @@ class RabbitConfiguration {
 
     companion object {
         private val log: Logger = LoggerFactory.getLogger(RabbitConfiguration::class.java)
+
+        /** We must register the Kotlin module to get deserialization to work with data classes */
+        fun createObjectMapper(): ObjectMapper = ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .registerKotlinModule()
     }
 
     @Bean
@@ -40,11 +45,7 @@ class RabbitConfiguration {
 
     @Bean
     fun jsonMessageConverter(): MessageConverter {
-        // We must register this Kotlin module to get deserialization to work with data classes
-        val mapper = ObjectMapper()
-                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-                .registerKotlinModule()
-        return Jackson2JsonMessageConverter(mapper)
+        return Jackson2JsonMessageConverter(createObjectMapper())
     }
 
     @Bean
@@ -28,6 +28,7 @@ import fredboat.config.property.BackendConfig;
 import fredboat.feature.metrics.Metrics;
 import fredboat.metrics.OkHttpEventMetrics;
 import fredboat.util.rest.Http;
+import io.netty.channel.ChannelOption;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,8 +39,13 @@ import org.springframework.http.client.BufferingClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.http.converter.json.GsonHttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunctions;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 /**
  * Created by napster on 16.03.18.
@@ -75,6 +81,32 @@ public class RestTemplateConfiguration {
                 .build();
     }
 
+    /**
+     * Non-blocking counterpart to the quarterdeck rest template, used by the services that are called in hot paths.
+     * It connects with the same timeout as the rest template. Responses are timed out by the services, see
+     * {@link fredboat.db.rest.ReactiveRestService#REQUEST_TIMEOUT}. Calls are counted in the same http metrics as the
+     * rest template's, though only their start, end and failure.
+     */
+    @Bean
+    public WebClient quarterdeckWebClient(BackendConfig backendConfig) {
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(options -> options
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Http.DEFAULT_BUILDER.connectTimeoutMillis())))
+                .filter((request, next) -> Mono.defer(() -> {
+                    Metrics.httpEventCounter.labels("quarterdeck", "callStart").inc();
+                    return next.exchange(request)
+                            .doOnSuccess(response -> Metrics.httpEventCounter.labels("quarterdeck", "callEnd").inc())
+                            .doOnError(e -> Metrics.httpEventCounter.labels("quarterdeck", "callFailed").inc());
+                }))
+                .filter(ExchangeFilterFunctions.basicAuthentication(
+                        backendConfig.getQuarterdeck().getUser(), backendConfig.getQuarterdeck().getPass()))
+                .filter(ExchangeFilterFunction.ofRequestProcessor(request -> {
+                    log.debug(">>>{} {}", request.method(), request.url());
+                    return Mono.just(request);
+                }))
+                .build();
+    }
+
     /**
      * @return a ClientHttpRequestFactory to use with our quarterdeck rest template. It will be a buffering one if debug
      * logs are enabled, so that we can read the body of the respone more than once and log it.
@@ -62,6 +62,21 @@ public interface AppConfig {
         return 1;
     }
 
+    /**
+     * @return the max concurrency of the bot's session start limit, which is the number of shards that may identify
+     * with Discord at the same time
+     */
+    default int getMaxConcurrency() {
+        return 1;
+    }
+
+    /**
+     * @return true to subscribe to guilds in batches, which requires Sentinels that support batch subscriptions
+     */
+    default boolean useBatchSubscribe() {
+        return false;
+    }
+
     List<Long> getAdminIds();
 
     List<Long> getOwnerIds();
@@ -86,6 +101,14 @@ public interface AppConfig {
 
     boolean getContinuePlayback();
 
+    /**
+     * @return relative error of the estimated unique user count, or 0 to count users exactly. Estimating requires
+     * Sentinels that answer user sketch requests
+     */
+    default double getUserCountError() {
+        return 0;
+    }
+
     @Nullable
     RatelimitConfig getRatelimit();
 }
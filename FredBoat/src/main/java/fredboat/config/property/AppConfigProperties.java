@@ -53,6 +53,9 @@ public class AppConfigProperties implements AppConfig {
     private String game = "";
     private boolean continuePlayback = false;
     private int shardCount = 1;
+    private int maxConcurrency = 1;
+    private boolean batchSubscribe = false;
+    private double userCountError = 0;
     //undocumented
     private int playerLimit = -1;
     private RatelimitConfig ratelimit;
@@ -111,6 +114,21 @@ public class AppConfigProperties implements AppConfig {
         return shardCount;
     }
 
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public boolean useBatchSubscribe() {
+        return batchSubscribe;
+    }
+
+    @Override
+    public double getUserCountError() {
+        return userCountError;
+    }
+
     @Override
     public RatelimitConfig getRatelimit() {
         return ratelimit;
@@ -161,6 +179,18 @@ public class AppConfigProperties implements AppConfig {
         this.shardCount = shardCount;
     }
 
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public void setBatchSubscribe(boolean batchSubscribe) {
+        this.batchSubscribe = batchSubscribe;
+    }
+
+    public void setUserCountError(double userCountError) {
+        this.userCountError = userCountError;
+    }
+
     public void setRatelimit(RatelimitConfig ratelimit) {
         this.ratelimit = ratelimit;
     }
@@ -29,6 +29,7 @@ import fredboat.db.rest.BackendException;
 import fredboat.util.func.NonnullSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
 import java.util.function.Supplier;
@@ -58,6 +59,16 @@ public class FriendlyEntityService {
         }
     }
 
+    /**
+     * Same as {@link FriendlyEntityService#fetchUserFriendly(NonnullSupplier)}, for operations that complete later.
+     */
+    public static <T> Mono<T> fetchUserFriendly(Mono<T> operation) {
+        return operation.onErrorMap(BackendException.class, e -> {
+            log.error("EntityService database operation failed", e);
+            return new DatabaseNotReadyException(e);
+        });
+    }
+
     /**
      * Same as {@link FriendlyEntityService#fetchUserFriendly(NonnullSupplier)}, just with a nullable return.
      */
@@ -27,6 +27,9 @@ package fredboat.db.api;
 
 import fredboat.db.rest.BackendException;
 import fredboat.db.transfer.BlacklistEntry;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 /**
  * Created by napster on 07.02.18.
@@ -35,7 +38,15 @@ public interface BlacklistService {
 
     BlacklistEntry fetchBlacklistEntry(long id) throws BackendException;
 
+    Mono<BlacklistEntry> fetchBlacklistEntryMono(long id);
+
     BlacklistEntry mergeBlacklistEntry(BlacklistEntry entry) throws BackendException;
 
     void deleteBlacklistEntry(long id) throws BackendException;
+
+    /**
+     * @return all entries that have been blacklisted at or after the given timestamp
+     * @throws UnsupportedOperationException if the backend does not serve this
+     */
+    List<BlacklistEntry> fetchBlacklistedSince(long millis) throws BackendException;
 }
@@ -27,6 +27,7 @@ package fredboat.db.api;
 
 import fredboat.db.transfer.GuildModules;
 import fredboat.sentinel.Guild;
+import reactor.core.publisher.Mono;
 
 import java.util.function.Function;
 
@@ -37,6 +38,8 @@ public interface GuildModulesService {
 
     GuildModules fetchGuildModules(Guild guild);
 
+    Mono<GuildModules> fetchGuildModulesMono(Guild guild);
+
     GuildModules transformGuildModules(Guild guild, Function<GuildModules, GuildModules> transformation);
 
 }
@@ -27,6 +27,7 @@ package fredboat.db.api;
 
 import fredboat.db.transfer.GuildPermissions;
 import fredboat.sentinel.Guild;
+import reactor.core.publisher.Mono;
 
 import java.util.function.Function;
 
@@ -37,5 +38,7 @@ public interface GuildPermsService {
 
     GuildPermissions fetchGuildPermissions(Guild guild);
 
+    Mono<GuildPermissions> fetchGuildPermissionsMono(Guild guild);
+
     GuildPermissions transformGuildPerms(Guild guild, Function<GuildPermissions, GuildPermissions> transformation);
 }
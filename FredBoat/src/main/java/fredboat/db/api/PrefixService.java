@@ -27,6 +27,7 @@ package fredboat.db.api;
 
 import fredboat.db.transfer.Prefix;
 import fredboat.sentinel.Guild;
+import reactor.core.publisher.Mono;
 
 import java.util.Optional;
 import java.util.function.Function;
@@ -39,4 +40,9 @@ public interface PrefixService {
     Prefix transformPrefix(Guild guild, Function<Prefix, Prefix> transformation);
 
     Optional<String> getPrefix(Prefix.GuildBotId id);
+
+    /**
+     * @return the custom prefix of the guild, or an empty Mono if it has none
+     */
+    Mono<String> getPrefixMono(Prefix.GuildBotId id);
 }
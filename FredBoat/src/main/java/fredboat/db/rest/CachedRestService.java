@@ -28,6 +28,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import fredboat.db.transfer.TransferObject;
+import fredboat.feature.metrics.Metrics;
 import fredboat.util.rest.CacheUtil;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.web.client.RestTemplate;
@@ -58,10 +59,20 @@ public abstract class CachedRestService<I extends Serializable, E extends Transf
     public CachedRestService(String path, Class<E> entityClass, RestTemplate backendRestTemplate,
                              CacheBuilder<Object, Object> cacheBuilder, CacheMetricsCollector cacheMetrics, String cacheName) {
         super(path, entityClass, backendRestTemplate);
-        this.cache = cacheBuilder.recordStats().build(CacheLoader.from(super::fetch));
+        this.cache = cacheBuilder.recordStats().build(new CacheLoader<I, E>() {
+            @Override
+            public E load(I id) {
+                Metrics.cacheHardMisses.labels(cacheName).inc();
+                return fetchUncached(id);
+            }
+        });
         cacheMetrics.addCache(cacheName, cache);
     }
 
+    private E fetchUncached(I id) {
+        return super.fetch(id);
+    }
+
     @Override
     protected void delete(I id) {
         try {
@@ -0,0 +1,79 @@
+package fredboat.db.rest
+
+import fredboat.db.transfer.Prefix
+import fredboat.feature.PatronageChecker
+import fredboat.feature.togglz.FeatureFlags
+import fredboat.sentinel.RawUser
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.stereotype.Component
+import reactor.core.publisher.FluxSink
+import reactor.core.publisher.Mono
+import reactor.core.publisher.UnicastProcessor
+import java.util.concurrent.ExecutorService
+
+/**
+ * Loads the settings that a command in a guild looks up, which are the guild config, modules, permissions and prefix,
+ * with concurrent requests and puts them into the caches of their services. This is done when a guild is subscribed,
+ * so the first command after a restart doesn't wait for each of them in turn.
+ */
+@Component
+class GuildSettingsPrefetcher(
+        @param:Qualifier("selfUser")
+        private val selfUser: RawUser,
+        private val guildConfigService: RestGuildConfigService,
+        private val guildModulesService: RestGuildModulesService,
+        private val guildPermsService: RestGuildPermsService,
+        private val prefixService: RestPrefixService,
+        private val patronageChecker: PatronageChecker,
+        private val executor: ExecutorService
+) {
+
+    companion object {
+        /** Subscribing to many guilds at once, like after a reconnect, should not flood Quarterdeck */
+        const val MAX_CONCURRENT_PREFETCHES = 8
+        private val log: Logger = LoggerFactory.getLogger(GuildSettingsPrefetcher::class.java)
+    }
+
+    private val queue: FluxSink<Long>
+
+    init {
+        val processor = UnicastProcessor.create<Long>()
+        queue = processor.sink()
+        processor.flatMap({ guild -> fetch(guild) }, MAX_CONCURRENT_PREFETCHES).subscribe()
+    }
+
+    /**
+     * Queue the settings of the guild for fetching. Settings that can't be fetched are left to be fetched on demand.
+     */
+    fun prefetch(guild: Long) {
+        queue.next(guild)
+    }
+
+    /**
+     * @return a Mono completing once the settings of the guild are cached
+     */
+    fun fetch(guild: Long): Mono<Void> = Mono.defer<Void> {
+        if (FeatureFlags.PATRON_VALIDATION.isActive) executor.execute { patronageChecker.prefetch(guild) }
+
+        val id = Prefix.GuildBotId(guild, selfUser.id)
+        if (isCached(id)) Mono.empty<Void>() else fetchSettings(id)
+    }.onErrorResume { e ->
+        log.warn("Failed to prefetch the settings of guild {}", guild, e)
+        Mono.empty()
+    }
+
+    private fun isCached(id: Prefix.GuildBotId) = guildConfigService.isCached(id.guildId.toString())
+            && guildModulesService.isCached(id.guildId)
+            && guildPermsService.isCached(id.guildId.toString())
+            && prefixService.isPrefixCached(id)
+
+    /** Fetching through the services caches the settings */
+    private fun fetchSettings(id: Prefix.GuildBotId): Mono<Void> = Mono.`when`(
+            guildConfigService.fetchMono(id.guildId.toString()),
+            guildModulesService.fetchMono(id.guildId),
+            guildPermsService.fetchMono(id.guildId.toString()),
+            prefixService.getPrefixMono(id)
+    )
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package fredboat.db.rest;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import fredboat.feature.metrics.Metrics;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Caches the {@link Mono}s of requests rather than their results. A request is added to the cache as soon as it is
+ * made, so concurrent misses for the same key subscribe to the same request instead of each making their own, and the
+ * completed request then serves as the cached value until it expires.
+ * <p>
+ * Failed requests are removed from the cache by the subscribers that see them fail, so the next lookup retries.
+ * <p>
+ * If the cache builder sets a refresh time, like {@link #refreshAhead()} does, stale values keep
+ * being served while they are requested again in the background. The cached value is only replaced once the new
+ * request succeeds.
+ */
+public class MonoCache<K, V> {
+
+    private final LoadingCache<K, Mono<V>> cache;
+
+    /**
+     * Cache mode that keeps serving values older than a minute while requesting them again in the background, instead
+     * of making the lookups wait for the backend. Values are only dropped once they haven't been refreshed for ten
+     * minutes, which happens when they were not looked up in that time.
+     */
+    public static CacheBuilder<Object, Object> refreshAhead() {
+        return CacheBuilder.newBuilder()
+                .refreshAfterWrite(60, TimeUnit.SECONDS)
+                .expireAfterWrite(10, TimeUnit.MINUTES);
+    }
+
+    public MonoCache(CacheBuilder<Object, Object> cacheBuilder, String name, Function<K, Mono<V>> loader) {
+        this.cache = cacheBuilder.recordStats().build(new CacheLoader<K, Mono<V>>() {
+            @Override
+            public Mono<V> load(K key) {
+                Metrics.cacheHardMisses.labels(name).inc();
+                return loader.apply(key).cache();
+            }
+
+            @Override
+            public ListenableFuture<Mono<V>> reload(K key, Mono<V> oldValue) {
+                Metrics.cacheSoftMisses.labels(name).inc();
+                SettableFuture<Mono<V>> future = SettableFuture.create();
+                loader.apply(key).subscribe(
+                        value -> future.set(Mono.just(value)),
+                        future::setException,
+                        () -> future.set(Mono.empty()) //ignored if a value was set already
+                );
+                return future;
+            }
+        });
+    }
+
+    /**
+     * @return the cached or in-flight request for the key, or a new request if there is none. The returned Mono may
+     * complete empty if the loader does.
+     */
+    public Mono<V> get(K key) {
+        Mono<V> request = cache.getUnchecked(key);
+        return request.doOnError(e -> cache.asMap().remove(key, request));
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, Mono.just(value));
+    }
+
+    public boolean contains(K key) {
+        return cache.getIfPresent(key) != null;
+    }
+
+    public void invalidate(K key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * @return the underlying cache, to register it for metrics
+     */
+    public LoadingCache<K, Mono<V>> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package fredboat.db.rest;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import fredboat.db.transfer.TransferObject;
+import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * Rest service that fetches entities without blocking, through a {@link WebClient}. Fetches are cached in a
+ * {@link MonoCache}, which the blocking {@link #fetch(Serializable)} shares, so concurrent misses for the same id result
+ * in a single request to the backend no matter how they are made. The blocking methods must not be called from Reactor or
+ * Netty threads, see {@link #fetch(Serializable)}.
+ * <p>
+ * Merges and deletes are rare and still go through the rest template.
+ */
+public abstract class ReactiveRestService<I extends Serializable, E extends TransferObject<I>> extends RestService<I, E> {
+
+    /** Same as the read timeout of the rest template */
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    /** Longer than {@link #REQUEST_TIMEOUT}, so that a shared request times out before the callers waiting on it */
+    public static final Duration BLOCK_TIMEOUT = REQUEST_TIMEOUT.plusSeconds(5);
+
+    protected final WebClient webClient;
+    protected final Gson gson;
+    protected final MonoCache<I, E> cache;
+
+    /**
+     * Create the ReactiveRestService using a {@link MonoCache#refreshAhead()} cache, as the entities of these
+     * services are looked up while handling commands
+     */
+    public ReactiveRestService(String path, Class<E> entityClass, RestTemplate backendRestTemplate, WebClient webClient,
+                               Gson gson, CacheMetricsCollector cacheMetrics, String cacheName) {
+        this(path, entityClass, backendRestTemplate, webClient, gson, MonoCache.refreshAhead(), cacheMetrics,
+                cacheName);
+    }
+
+    public ReactiveRestService(String path, Class<E> entityClass, RestTemplate backendRestTemplate, WebClient webClient,
+                               Gson gson, CacheBuilder<Object, Object> cacheBuilder, CacheMetricsCollector cacheMetrics,
+                               String cacheName) {
+        super(path, entityClass, backendRestTemplate);
+        this.webClient = webClient;
+        this.gson = gson;
+        this.cache = new MonoCache<>(cacheBuilder, cacheName, this::request);
+        cacheMetrics.addCache(cacheName, cache.getCache());
+    }
+
+    /**
+     * @return the cached entity, or the pending request for it
+     */
+    public Mono<E> fetchMono(I id) {
+        return cache.get(id);
+    }
+
+    public boolean isCached(I id) {
+        return cache.contains(id);
+    }
+
+    /**
+     * Blocks until the entity has been fetched. Never call this from a Reactor or Netty thread, like the callbacks of
+     * {@link #fetchMono(Serializable)}: the response is received on those threads, so blocking them may stall every
+     * pending request. Use {@link #fetchMono(Serializable)} there instead.
+     */
+    @Override
+    public E fetch(I id) {
+        try {
+            return fetchMono(id).block(BLOCK_TIMEOUT);
+        } catch (IllegalStateException e) {
+            throw new BackendException(String.format("Timed out fetching entity with id %s of class %s", id,
+                    entityClass), e);
+        }
+    }
+
+    @Override
+    protected void delete(I id) {
+        try {
+            super.delete(id);
+        } finally {
+            cache.invalidate(id);
+        }
+    }
+
+    @Override
+    public E merge(E entity) {
+        E merged = super.merge(entity);
+        cache.put(merged.getId(), merged);
+        return merged;
+    }
+
+    private Mono<E> request(I id) {
+        return post("fetch", id, entityClass)
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new BackendException(
+                        String.format("Fetched entity with id %s of class %s is null", id, entityClass)))))
+                .onErrorMap(e -> !(e instanceof BackendException), e -> new BackendException(
+                        String.format("Could not fetch entity with id %s of class %s", id, entityClass), e));
+    }
+
+    /**
+     * Post the body as json, the same way the rest template does, and read the response as the given type.
+     *
+     * @return a Mono that completes empty if the response has no body, and fails if there is no response within
+     * {@link #REQUEST_TIMEOUT}
+     */
+    protected <T> Mono<T> post(String endpoint, Object body, Class<T> responseType) {
+        return webClient.post()
+                .uri(path + endpoint)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(gson.toJson(body))
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(REQUEST_TIMEOUT)
+                .flatMap(json -> Mono.justOrEmpty(gson.fromJson(json, responseType)));
+    }
+}
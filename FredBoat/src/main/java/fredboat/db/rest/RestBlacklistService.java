@@ -28,8 +28,17 @@ import fredboat.config.property.BackendConfig;
 import fredboat.db.api.BlacklistService;
 import fredboat.db.transfer.BlacklistEntry;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.GsonHttpMessageConverter;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
 
 import static fredboat.db.FriendlyEntityService.doUserFriendly;
 import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
@@ -38,13 +47,16 @@ import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
  * Created by napster on 17.02.18.
  */
 @Component
-public class RestBlacklistService extends CachedRestService<Long, BlacklistEntry> implements BlacklistService {
+public class RestBlacklistService extends ReactiveRestService<Long, BlacklistEntry> implements BlacklistService {
 
     public static final String PATH = "blacklist/";
 
-    public RestBlacklistService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, CacheMetricsCollector cacheMetrics) {
+    public RestBlacklistService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate,
+                                WebClient quarterdeckWebClient, GsonHttpMessageConverter gson,
+                                CacheMetricsCollector cacheMetrics) {
         super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, BlacklistEntry.class,
-                quarterdeckRestTemplate, cacheMetrics, RestBlacklistService.class.getSimpleName());
+                quarterdeckRestTemplate, quarterdeckWebClient, gson.getGson(), cacheMetrics,
+                RestBlacklistService.class.getSimpleName());
     }
 
     @Override
@@ -52,6 +64,11 @@ public class RestBlacklistService extends CachedRestService<Long, BlacklistEntry
         return fetchUserFriendly(() -> fetch(id));
     }
 
+    @Override
+    public Mono<BlacklistEntry> fetchBlacklistEntryMono(long id) {
+        return fetchUserFriendly(fetchMono(id));
+    }
+
     @Override
     public BlacklistEntry mergeBlacklistEntry(BlacklistEntry entry) {
         return fetchUserFriendly(() -> merge(entry));
@@ -61,4 +78,22 @@ public class RestBlacklistService extends CachedRestService<Long, BlacklistEntry
     public void deleteBlacklistEntry(long id) {
         doUserFriendly(() -> delete(id));
     }
+
+    @Override
+    public List<BlacklistEntry> fetchBlacklistedSince(long millis) {
+        try {
+            BlacklistEntry[] result = backendRestTemplate.getForObject(path + "blacklistedsince?millis={millis}",
+                    BlacklistEntry[].class, Long.toString(millis));
+            return result == null ? List.of() : Arrays.asList(result);
+        } catch (HttpStatusCodeException e) {
+            //older Quarterdeck versions don't have this endpoint
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND || e.getStatusCode() == HttpStatus.METHOD_NOT_ALLOWED) {
+                throw new UnsupportedOperationException(String.format("Fetching blacklisted entries responded with %s",
+                        e.getStatusCode()), e);
+            }
+            throw new BackendException(String.format("Could not fetch entries blacklisted since %s", millis), e);
+        } catch (RestClientException e) {
+            throw new BackendException(String.format("Could not fetch entries blacklisted since %s", millis), e);
+        }
+    }
 }
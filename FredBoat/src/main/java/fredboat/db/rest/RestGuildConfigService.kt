@@ -29,19 +29,25 @@ import fredboat.db.FriendlyEntityService.fetchUserFriendly
 import fredboat.db.api.GuildConfigService
 import fredboat.db.transfer.GuildConfig
 import io.prometheus.client.guava.cache.CacheMetricsCollector
+import org.springframework.http.converter.json.GsonHttpMessageConverter
 import org.springframework.stereotype.Component
 import org.springframework.web.client.RestTemplate
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Mono
 
 /**
  * Created by napster on 17.02.18.
  */
 @Component
 class RestGuildConfigService(backendConfig: BackendConfig, quarterdeckRestTemplate: RestTemplate,
+                             quarterdeckWebClient: WebClient, gson: GsonHttpMessageConverter,
                              cacheMetrics: CacheMetricsCollector)
-    : CachedRestService<String, GuildConfig>(
+    : ReactiveRestService<String, GuildConfig>(
         backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH,
         GuildConfig::class.java,
         quarterdeckRestTemplate,
+        quarterdeckWebClient,
+        gson.gson,
         cacheMetrics,
         RestGuildConfigService::class.java.simpleName
 ), GuildConfigService {
@@ -54,6 +60,10 @@ class RestGuildConfigService(backendConfig: BackendConfig, quarterdeckRestTempla
         return fetchUserFriendly { fetch(guild.toString()) }
     }
 
+    override fun fetchGuildConfigMono(guild: Long): Mono<GuildConfig> {
+        return fetchUserFriendly(fetchMono(guild.toString()))
+    }
+
     override fun transformGuildConfig(guild: Long, transformation: (GuildConfig) -> GuildConfig): GuildConfig {
         return fetchUserFriendly { merge(transformation(fetchGuildConfig(guild))) }
     }
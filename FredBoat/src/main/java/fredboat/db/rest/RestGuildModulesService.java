@@ -29,8 +29,11 @@ import fredboat.db.api.GuildModulesService;
 import fredboat.db.transfer.GuildModules;
 import fredboat.sentinel.Guild;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.springframework.http.converter.json.GsonHttpMessageConverter;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
 
 import java.util.function.Function;
 
@@ -40,14 +43,16 @@ import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
  * Created by napster on 17.02.18.
  */
 @Component
-public class RestGuildModulesService extends CachedRestService<Long, GuildModules> implements GuildModulesService {
+public class RestGuildModulesService extends ReactiveRestService<Long, GuildModules> implements GuildModulesService {
 
     public static final String PATH = "guildmodules/";
 
     public RestGuildModulesService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate,
+                                   WebClient quarterdeckWebClient, GsonHttpMessageConverter gson,
                                    CacheMetricsCollector cacheMetrics) {
         super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, GuildModules.class,
-                quarterdeckRestTemplate, cacheMetrics, RestGuildModulesService.class.getSimpleName());
+                quarterdeckRestTemplate, quarterdeckWebClient, gson.getGson(), cacheMetrics,
+                RestGuildModulesService.class.getSimpleName());
     }
 
     @Override
@@ -55,6 +60,11 @@ public class RestGuildModulesService extends CachedRestService<Long, GuildModule
         return fetchUserFriendly(() -> fetch(guild.getId()));
     }
 
+    @Override
+    public Mono<GuildModules> fetchGuildModulesMono(Guild guild) {
+        return fetchUserFriendly(fetchMono(guild.getId()));
+    }
+
     @Override
     public GuildModules transformGuildModules(Guild guild, Function<GuildModules, GuildModules> transformation) {
         return fetchUserFriendly(() -> merge(transformation.apply(fetchGuildModules(guild))));
@@ -30,8 +30,11 @@ import fredboat.db.api.GuildPermsService
 import fredboat.db.transfer.GuildPermissions
 import fredboat.sentinel.Guild
 import io.prometheus.client.guava.cache.CacheMetricsCollector
+import org.springframework.http.converter.json.GsonHttpMessageConverter
 import org.springframework.stereotype.Component
 import org.springframework.web.client.RestTemplate
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Mono
 import java.util.function.Function
 
 /**
@@ -39,7 +42,8 @@ import java.util.function.Function
  */
 @Component
 class RestGuildPermsService(backendConfig: BackendConfig, quarterdeckRestTemplate: RestTemplate,
-                            cacheMetrics: CacheMetricsCollector) : CachedRestService<String, GuildPermissions>(backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH, GuildPermissions::class.java, quarterdeckRestTemplate, cacheMetrics, RestGuildPermsService::class.java.simpleName), GuildPermsService {
+                            quarterdeckWebClient: WebClient, gson: GsonHttpMessageConverter,
+                            cacheMetrics: CacheMetricsCollector) : ReactiveRestService<String, GuildPermissions>(backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH, GuildPermissions::class.java, quarterdeckRestTemplate, quarterdeckWebClient, gson.gson, cacheMetrics, RestGuildPermsService::class.java.simpleName), GuildPermsService {
 
     companion object {
         const val PATH = "guildperms/"
@@ -49,6 +53,10 @@ class RestGuildPermsService(backendConfig: BackendConfig, quarterdeckRestTemplat
         return fetchUserFriendly { fetch(guild.id.toString()) }
     }
 
+    override fun fetchGuildPermissionsMono(guild: Guild): Mono<GuildPermissions> {
+        return fetchUserFriendly(fetchMono(guild.id.toString()))
+    }
+
     override fun transformGuildPerms(guild: Guild, transformation: Function<GuildPermissions, GuildPermissions>): GuildPermissions {
         return fetchUserFriendly { merge(transformation.apply(fetchGuildPermissions(guild))) }
     }
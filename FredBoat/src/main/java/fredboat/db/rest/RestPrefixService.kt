@@ -24,6 +24,8 @@
 
 package fredboat.db.rest
 
+import fredboat.commandmeta.CommandPrefixFilter
+import fredboat.config.property.AppConfig
 import fredboat.config.property.BackendConfig
 import fredboat.db.FriendlyEntityService.fetchUserFriendly
 import fredboat.db.api.PrefixService
@@ -32,9 +34,11 @@ import fredboat.sentinel.Guild
 import fredboat.sentinel.RawUser
 import io.prometheus.client.guava.cache.CacheMetricsCollector
 import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.http.converter.json.GsonHttpMessageConverter
 import org.springframework.stereotype.Component
-import org.springframework.web.client.RestClientException
 import org.springframework.web.client.RestTemplate
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Mono
 import java.util.*
 import java.util.function.Function
 
@@ -47,12 +51,18 @@ class RestPrefixService(
         @param:Qualifier("selfUser")
         private val selfUser: RawUser,
         backendConfig: BackendConfig,
+        appConfig: AppConfig,
         quarterdeckRestTemplate: RestTemplate,
-        cacheMetrics: CacheMetricsCollector
-) : CachedRestService<Prefix.GuildBotId, Prefix>(
+        quarterdeckWebClient: WebClient,
+        gson: GsonHttpMessageConverter,
+        cacheMetrics: CacheMetricsCollector,
+        private val prefixFilter: CommandPrefixFilter
+) : ReactiveRestService<Prefix.GuildBotId, Prefix>(
         backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH,
         Prefix::class.java,
         quarterdeckRestTemplate,
+        quarterdeckWebClient,
+        gson.gson,
         cacheMetrics,
         RestPrefixService::class.java.simpleName
 ), PrefixService {
@@ -61,17 +71,40 @@ class RestPrefixService(
         const val PATH = "prefix/"
     }
 
-    override fun transformPrefix(guild: Guild, transformation: Function<Prefix, Prefix>): Prefix {
-        val prefix = fetchUserFriendly { fetch(Prefix.GuildBotId(guild, selfUser.id)) }
-        return fetchUserFriendly { merge(transformation.apply(prefix)) }
+    /** Raw prefixes, which are looked up for every message that could be a command */
+    private val prefixes = MonoCache<Prefix.GuildBotId, String>(MonoCache.refreshAhead()
+            //it is fine to check the db for updates occasionally, as we currently dont have any use case where we change
+            //the value saved there through other means than the prefix command, which invalidates it
+            .concurrencyLevel(appConfig.shardCount), "customPrefixes") { id ->
+        val generation = prefixFilter.generation(id.guildId)
+        post("getraw", id, String::class.java)
+                .onErrorMap({ it !is BackendException }, { BackendException("Could not get prefix for guild " + id.guildId, it) })
+                .doOnSuccess { prefixFilter.onPrefixLoaded(id.guildId, it, generation) }
     }
 
-    override fun getPrefix(id: Prefix.GuildBotId): Optional<String> {
+    init {
+        cacheMetrics.addCache("customPrefixes", prefixes.cache)
+    }
+
+    override fun transformPrefix(guild: Guild, transformation: Function<Prefix, Prefix>): Prefix {
+        val id = Prefix.GuildBotId(guild, selfUser.id)
+        val prefix = fetchUserFriendly { fetch(id) }
         try {
-            return Optional.ofNullable(backendRestTemplate.postForObject(path + "getraw", id, String::class.java))
-        } catch (e: RestClientException) {
-            throw BackendException("Could not get prefix for guild " + id.guildId, e)
+            return fetchUserFriendly { merge(transformation.apply(prefix)) }
+        } finally {
+            //we could do a put instead of invalidate here and probably safe one lookup, but that undermines the database
+            // as being the single source of truth for prefixes
+            //forget first, so that loads started before the invalidation can't put the old prefix back into the filter
+            prefixFilter.forget(id.guildId)
+            prefixes.invalidate(id)
         }
+    }
 
+    override fun getPrefix(id: Prefix.GuildBotId): Optional<String> {
+        return Optional.ofNullable(getPrefixMono(id).block(ReactiveRestService.BLOCK_TIMEOUT))
     }
+
+    override fun getPrefixMono(id: Prefix.GuildBotId): Mono<String> = prefixes.get(id)
+
+    fun isPrefixCached(id: Prefix.GuildBotId) = prefixes.contains(id)
 }
@@ -31,7 +31,6 @@ import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 import fredboat.definitions.SearchProvider;
-import org.apache.commons.lang3.SerializationUtils;
 
 import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
@@ -63,7 +62,7 @@ public class SearchResult implements TransferObject<SearchResult.SearchResultId>
                         AudioPlaylist searchResult) {
         this.searchResultId = new SearchResultId(provider, searchTerm);
         this.timestamp = System.currentTimeMillis();
-        this.serializedSearchResult = SerializationUtils.serialize(new SearchResult.SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = SearchResultCodec.encode(playerManager, searchResult);
     }
 
     @Override
@@ -96,12 +95,11 @@ public class SearchResult implements TransferObject<SearchResult.SearchResultId>
     }
 
     public AudioPlaylist getSearchResult(AudioPlayerManager playerManager) {
-        SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
-        return sap.decode(playerManager);
+        return SearchResultCodec.decode(playerManager, serializedSearchResult);
     }
 
     public void setSearchResult(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = SearchResultCodec.encode(playerManager, searchResult);
     }
 
     /**
@@ -156,7 +154,11 @@ public class SearchResult implements TransferObject<SearchResult.SearchResultId>
     }
 
 
-    private static class SerializableAudioPlaylist implements Serializable {
+    /**
+     * The format search results were stored in before {@link SearchResultCodec}. Only read when decoding old blobs.
+     * Do not rename or move this class, java serialization depends on it.
+     */
+    static class SerializableAudioPlaylist implements Serializable {
         private static final long serialVersionUID = -6823555858689776338L;
 
         @Nullable
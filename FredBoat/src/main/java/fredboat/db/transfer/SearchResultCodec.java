@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.transfer;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import org.apache.commons.lang3.SerializationUtils;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of the playlists cached in {@link SearchResult}s.
+ * <p>
+ * Layout: magic (int), version (byte), flags (byte), name (UTF, if flagged), selected track (if flagged), track count
+ * (int), tracks. Each track is written as its length (int) followed by the bytes lavaplayer encodes it to, so tracks
+ * that fail to decode can be skipped without losing the rest of the result.
+ * <p>
+ * Blobs that do not start with the magic value are read as the java serialized {@link SearchResult.SerializableAudioPlaylist}
+ * that was used before.
+ */
+final class SearchResultCodec {
+
+    //"FBSR". Java serialization streams start with 0xACED instead
+    static final int MAGIC = 0x46425352;
+    static final byte VERSION = 1;
+
+    private static final int FLAG_SEARCH_RESULT = 1;
+    private static final int FLAG_HAS_NAME = 1 << 1;
+    private static final int FLAG_HAS_SELECTED_TRACK = 1 << 2;
+
+    private SearchResultCodec() {
+    }
+
+    static byte[] encode(AudioPlayerManager playerManager, AudioPlaylist playlist) {
+        try {
+            ByteArrayOutputStream trackBuffer = new ByteArrayOutputStream(256);
+            ByteArrayOutputStream tracksBytes = new ByteArrayOutputStream(playlist.getTracks().size() * 256);
+            DataOutputStream tracksOut = new DataOutputStream(tracksBytes);
+            int trackCount = 0;
+            for (AudioTrack track : playlist.getTracks()) {
+                if (writeTrack(playerManager, track, trackBuffer, tracksOut)) {
+                    trackCount++;
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(tracksBytes.size() + 512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            String name = playlist.getName();
+            ByteArrayOutputStream selectedBytes = new ByteArrayOutputStream();
+            boolean hasSelectedTrack = playlist.getSelectedTrack() != null
+                    && writeTrack(playerManager, playlist.getSelectedTrack(), trackBuffer, new DataOutputStream(selectedBytes));
+
+            int flags = 0;
+            if (playlist.isSearchResult()) flags |= FLAG_SEARCH_RESULT;
+            if (name != null) flags |= FLAG_HAS_NAME;
+            if (hasSelectedTrack) flags |= FLAG_HAS_SELECTED_TRACK;
+
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            if (name != null) out.writeUTF(name);
+            selectedBytes.writeTo(out);
+            out.writeInt(trackCount);
+            tracksBytes.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            //in memory streams only, this should not happen
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static AudioPlaylist decode(AudioPlayerManager playerManager, byte[] blob) {
+        if (!hasMagic(blob)) {
+            SearchResult.SerializableAudioPlaylist legacy = SerializationUtils.deserialize(blob);
+            return legacy.decode(playerManager);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob))) {
+            in.readInt(); //magic
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported search result format version " + version);
+            }
+            int flags = in.readByte();
+            String name = (flags & FLAG_HAS_NAME) != 0 ? in.readUTF() : null;
+            AudioTrack selectedTrack = (flags & FLAG_HAS_SELECTED_TRACK) != 0 ? readTrack(playerManager, in) : null;
+            int trackCount = in.readInt();
+            List<AudioTrack> tracks = new ArrayList<>(trackCount);
+            for (int i = 0; i < trackCount; i++) {
+                AudioTrack track = readTrack(playerManager, in);
+                if (track != null) {
+                    tracks.add(track);
+                }
+            }
+            return new BasicAudioPlaylist(name, tracks, selectedTrack, (flags & FLAG_SEARCH_RESULT) != 0);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed search result", e);
+        }
+    }
+
+    private static boolean hasMagic(byte[] blob) {
+        return blob.length >= 4
+                && ((blob[0] & 0xFF) << 24 | (blob[1] & 0xFF) << 16 | (blob[2] & 0xFF) << 8 | (blob[3] & 0xFF)) == MAGIC;
+    }
+
+    //returns false and writes nothing if the track could not be encoded
+    private static boolean writeTrack(AudioPlayerManager playerManager, AudioTrack track,
+                                      ByteArrayOutputStream trackBuffer, DataOutputStream out) throws IOException {
+        trackBuffer.reset();
+        try {
+            playerManager.encodeTrack(new MessageOutput(trackBuffer), track);
+        } catch (IOException ignored) {
+            return false;
+        }
+        out.writeInt(trackBuffer.size());
+        trackBuffer.writeTo(out);
+        return true;
+    }
+
+    //may return null if the decoding fails
+    @Nullable
+    private static AudioTrack readTrack(AudioPlayerManager playerManager, DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative track length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try {
+            return playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(bytes))).decodedTrack;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -8,6 +8,8 @@ import fredboat.db.api.GuildConfigService
 import fredboat.feature.I18n
 import fredboat.sentinel.Member
 import fredboat.sentinel.VoiceChannel
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
 
 @Component
@@ -18,6 +20,10 @@ class AudioEventHandler(
         private val guildConfigService: GuildConfigService
 ) : SentinelEventHandler() {
 
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(AudioEventHandler::class.java)
+    }
+
     override fun onVoiceJoin(channel: VoiceChannel, member: Member) {
         checkForAutoResume(channel, member)
         if (!member.isUs) return
@@ -55,7 +61,10 @@ class AudioEventHandler(
 
         if (player.getHumanUsersInVC(currentVc).isEmpty() && !player.isPaused) {
             player.pause()
-            player.activeTextChannel?.send(I18n.get(channelLeft.guild).getString("eventUsersLeftVC"))?.subscribe()
+            val textChannel = player.activeTextChannel ?: return
+            I18n.getLocaleMono(channelLeft.guild.id)
+                    .flatMap { textChannel.send(it.props.getString("eventUsersLeftVC")) }
+                    .subscribe()
         }
     }
 
@@ -69,11 +78,16 @@ class AudioEventHandler(
 
         if (player.isPaused
                 && player.playingTrack != null
-                && joinedChannel.members.contains(guild.selfMember)
-                && player.humanUsersInCurrentVC.isNotEmpty()
-                && guildConfigService.fetchGuildConfig(guild.id).isAutoResume) {
-            player.setPause(false)
-            player.activeTextChannel?.send(I18n.get(guild).getString("eventAutoResumed"))?.subscribe()
+                && guild.selfMember.voiceChannel == joinedChannel
+                && player.humanUsersInCurrentVCCount > 0) {
+            //events of this guild wait for us, so don't block on the guild config
+            guildConfigService.fetchGuildConfigMono(guild.id)
+                    .filter { it.isAutoResume && player.isPaused }
+                    .flatMap { I18n.getLocaleMono(guild.id) }
+                    .subscribe({ locale ->
+                        player.setPause(false)
+                        player.activeTextChannel?.send(locale.props.getString("eventAutoResumed"))?.subscribe()
+                    }, { e -> log.warn("Could not check for auto resume in guild {}", guild.id, e) })
         }
     }
 
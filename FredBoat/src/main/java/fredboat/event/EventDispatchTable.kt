@@ -0,0 +1,45 @@
+package fredboat.event
+
+import com.fredboat.sentinel.entities.*
+import java.lang.reflect.Method
+import kotlin.reflect.jvm.javaMethod
+
+/**
+ * Maps each event class to the [SentinelEventHandler]s that override its handler method. This is resolved once at
+ * startup, so that events are only passed to the handlers which do something with them.
+ *
+ * Handlers that are proxied by Spring count as overriding every method, so they always get all events.
+ */
+class EventDispatchTable(handlers: List<SentinelEventHandler>) {
+
+    companion object {
+        private val METHODS: Map<Class<*>, Method> = mapOf(
+                ShardStatusChange::class.java to SentinelEventHandler::onShardStatusChange.javaMethod!!,
+                ShardLifecycleEvent::class.java to SentinelEventHandler::onShardLifecycle.javaMethod!!,
+                GuildJoinEvent::class.java to SentinelEventHandler::onGuildJoin.javaMethod!!,
+                GuildLeaveEvent::class.java to SentinelEventHandler::onGuildLeave.javaMethod!!,
+                VoiceJoinEvent::class.java to SentinelEventHandler::onVoiceJoin.javaMethod!!,
+                VoiceLeaveEvent::class.java to SentinelEventHandler::onVoiceLeave.javaMethod!!,
+                VoiceMoveEvent::class.java to SentinelEventHandler::onVoiceMove.javaMethod!!,
+                VoiceServerUpdate::class.java to SentinelEventHandler::onVoiceServerUpdate.javaMethod!!,
+                MessageReceivedEvent::class.java to SentinelEventHandler::onGuildMessage.javaMethod!!,
+                MessageDeleteEvent::class.java to SentinelEventHandler::onGuildMessageDelete.javaMethod!!,
+                PrivateMessageReceivedEvent::class.java to SentinelEventHandler::onPrivateMessage.javaMethod!!
+        )
+
+        private fun SentinelEventHandler.overrides(method: Method) =
+                javaClass.getMethod(method.name, *method.parameterTypes).declaringClass != SentinelEventHandler::class.java
+    }
+
+    private val table: Map<Class<*>, Array<SentinelEventHandler>> = METHODS.mapValues { (_, method) ->
+        handlers.filter { it.overrides(method) }.toTypedArray()
+    }
+
+    /** @return the handlers of the event class, in the order they were passed in */
+    operator fun get(eventClass: Class<*>): Array<SentinelEventHandler> = table[eventClass]
+            ?: throw IllegalArgumentException("No handler method for $eventClass")
+
+    override fun toString() = table.entries.joinToString(prefix = "{", postfix = "}") { (eventClass, handlers) ->
+        eventClass.simpleName + "=" + handlers.map { it.javaClass.simpleName }
+    }
+}
@@ -31,11 +31,17 @@ import fredboat.command.info.HelpCommand
 import fredboat.command.info.ShardsCommand
 import fredboat.command.info.StatsCommand
 import fredboat.commandmeta.CommandContextParser
+import fredboat.commandmeta.CommandExecutor
 import fredboat.commandmeta.CommandInitializer
 import fredboat.commandmeta.CommandManager
+import fredboat.commandmeta.CommandPrefixFilter
+import fredboat.commandmeta.CommandRegistry
 import fredboat.commandmeta.abs.CommandContext
 import fredboat.config.property.AppConfigProperties
 import fredboat.definitions.PermissionLevel
+import fredboat.feature.I18n
+import fredboat.feature.metrics.CommandTrace
+import fredboat.feature.metrics.CommandTrace.Stage
 import fredboat.feature.metrics.Metrics
 import fredboat.perms.Permission.MESSAGE_READ
 import fredboat.perms.Permission.MESSAGE_WRITE
@@ -47,11 +53,12 @@ import fredboat.sentinel.User
 import fredboat.sentinel.getGuild
 import fredboat.util.ratelimit.Ratelimiter
 import io.prometheus.client.guava.cache.CacheMetricsCollector
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.awaitSingle
+import kotlinx.coroutines.withContext
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
+import java.time.Instant
 import java.util.concurrent.TimeUnit
 
 @Component
@@ -61,6 +68,8 @@ class MessageEventHandler(
         private val commandContextParser: CommandContextParser,
         private val commandManager: CommandManager,
         private val appConfig: AppConfigProperties,
+        private val prefixFilter: CommandPrefixFilter,
+        private val commandExecutor: CommandExecutor,
         cacheMetrics: CacheMetricsCollector
 ) : SentinelEventHandler() {
 
@@ -71,6 +80,8 @@ class MessageEventHandler(
                 .recordStats()
                 .expireAfterWrite(6, TimeUnit.HOURS)
                 .build<Long, Long>()!!
+        private val messagesAccepted = Metrics.messagesPrefiltered.labels("accepted")
+        private val messagesRejected = Metrics.messagesPrefiltered.labels("rejected")
     }
 
     init {
@@ -78,14 +89,21 @@ class MessageEventHandler(
     }
 
     override fun onGuildMessage(event: MessageReceivedEvent) {
+        if (sentinel.selfUser.id == event.author) log.info(if(event.content.isBlank()) "<empty>" else event.content)
+        if (event.fromBot) return
+
+        //Most messages are just chat, so drop everything that can't be a command before doing any other work
+        if (!prefixFilter.isPossibleCommand(event.guild, event.content)) {
+            messagesRejected.inc()
+            return
+        }
+        messagesAccepted.inc()
+
         if (ratelimiter.isBlacklisted(event.author)) {
             Metrics.blacklistedMessagesReceived.inc()
             return
         }
 
-        if (sentinel.selfUser.id == event.author) log.info(if(event.content.isBlank()) "<empty>" else event.content)
-        if (event.fromBot) return
-
         //Preliminary permission filter to avoid a ton of parsing
         //Let messages pass on to parsing that contain "help" since we want to answer help requests even from channels
         // where we can't talk in
@@ -93,8 +111,12 @@ class MessageEventHandler(
         if (permissions hasNot (MESSAGE_READ + MESSAGE_WRITE)
                 && !event.content.contains(CommandInitializer.HELP_COMM_NAME)) return
 
-        GlobalScope.launch {
+        val trace = CommandTrace(event.id)
+        commandExecutor.launch(trace.asContextElement()) {
+            val parseStart = System.nanoTime()
             val context = commandContextParser.parse(event) ?: return@launch
+            trace.onParsed(context.command.javaClass.simpleName,
+                    System.nanoTime() - parseStart - trace[Stage.GUILD_FETCH])
 
             // Renew the time to prevent invalidation
             (context.guild as InternalGuild).lastUsed = System.currentTimeMillis()
@@ -112,34 +134,56 @@ class MessageEventHandler(
             //ignore commands of disabled modules for plebs
             //BOT_ADMINs can always use all commands everywhere
             val module = context.command.module
-            if (module != null
-                    && !context.enabledModules.contains(module)
-                    && !PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
+            val moduleDisabled = trace.measure(Stage.PERMS) {
+                module != null
+                        && !CommandRegistry.isAlwaysEnabled(module)
+                        && !context.enabledModules().contains(module)
+                        && !PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)
+            }
+            if (moduleDisabled) {
                 log.debug("Ignoring command {} because its module {} is disabled",
-                        context.command.name, module.name)
+                        context.command.name, module?.name)
                 return@launch
             }
 
-            limitOrExecuteCommand(context)
+            // Fetch the locale of the guild up front, so that replying doesn't block on it
+            I18n.getLocaleMono(context.guild.id).awaitSingle()
+
+            val queued = System.nanoTime()
+            commandExecutor.execute(context) {
+                withContext(trace.asContextElement()) {
+                    trace.record(Stage.QUEUE, System.nanoTime() - queued)
+                    try {
+                        limitOrExecuteCommand(context, trace)
+                    } finally {
+                        trace.finish()
+                    }
+                }
+            }
         }
     }
 
     /**
      * Check the rate limit of the user and execute the command if everything is fine.
      * @param context Command context of the command to be invoked.
+     * @param trace Trace of the command, to record its execution time in.
      */
-    private suspend fun limitOrExecuteCommand(context: CommandContext) {
+    private suspend fun limitOrExecuteCommand(context: CommandContext, trace: CommandTrace) {
         if (ratelimiter.isRatelimited(context, context.command)) {
             return
         }
 
-        Metrics.executionTime.labels(context.command.javaClass.simpleName).startTimer().use {
-            commandManager.prefixCalled(context)
+        trace.measure(Stage.EXECUTE) {
+            Metrics.executionTime.labels(context.command.javaClass.simpleName).startTimer().use {
+                commandManager.prefixCalled(context)
+            }
         }
         //NOTE: Some commands, like ;;mal, run async and will not reflect the real performance of FredBoat
         // their performance should be judged by the totalResponseTime metric instead
     }
 
+    override fun onGuildLeave(guildId: Long, joinTime: Instant) = prefixFilter.remove(guildId)
+
     override fun onPrivateMessage(author: User, content: String) {
         if (ratelimiter.isBlacklisted(author.id)) {
             Metrics.blacklistedMessagesReceived.inc()
@@ -158,14 +202,14 @@ class MessageEventHandler(
             //hack in / hardcode some commands; this is not meant to look clean
             val lowered = content.toLowerCase()
             if (lowered.contains("shard")) {
-                GlobalScope.launch {
+                commandExecutor.launch {
                     for (message in ShardsCommand.getShardStatus(author.sentinel, content)) {
                         author.sendPrivate(message).subscribe()
                     }
                 }
                 return
             } else if (lowered.contains("stats")) {
-                GlobalScope.launch {
+                commandExecutor.launch {
                     author.sendPrivate(StatsCommand.getStats(null)).subscribe()
                 }
                 return
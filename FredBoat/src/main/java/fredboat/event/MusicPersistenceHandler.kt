@@ -39,11 +39,14 @@ import fredboat.config.property.AppConfig
 import fredboat.config.property.Credentials
 import fredboat.definitions.RepeatMode
 import fredboat.feature.I18n
+import fredboat.sentinel.GuildCache
 import fredboat.sentinel.getGuild
 import fredboat.shared.constant.DistributionEnum
 import fredboat.shared.constant.ExitCodes
+import fredboat.util.DiscordUtil
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.reactive.awaitFirstOrNull
 import org.apache.commons.codec.binary.Base64
 import org.apache.commons.io.FileUtils
 import org.json.JSONObject
@@ -208,6 +211,11 @@ class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, privat
             return
         }
 
+        // Subscribe to all the guilds in batches first, so the loop below hits the cache
+        val guildIds = files.mapNotNull { it.name.toLongOrNull() }
+                .filter { DiscordUtil.getShardId(it, appConfig) == shard.id }
+        GuildCache.INSTANCE.getAll(guildIds).then().awaitFirstOrNull()
+
         for (file in files) {
             try {
                 val guild = getGuild(file.name.toLong()) ?: continue
@@ -31,6 +31,7 @@ import fredboat.audio.player.PlayerRegistry
 import fredboat.config.property.AppConfig
 import fredboat.sentinel.Guild
 import fredboat.sentinel.GuildCache
+import fredboat.sentinel.InternalGuild
 import fredboat.util.DiscordUtil
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
@@ -38,7 +39,6 @@ import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.atomic.AtomicInteger
 import java.util.stream.Stream
 import kotlin.streams.toList
 
@@ -80,23 +80,30 @@ class ShardLifecycleHandler(
         log.info("Synchronizing subscribed guilds after receiving ${event.change} for ${event.shard}. " +
                 "${affectedGuilds.size} guilds are affected")
 
-        val counter = AtomicInteger(0)
-        val monos = affectedGuilds.asSequence().map { guild ->
+        val synced = ConcurrentHashMap.newKeySet<Long>()
+        return guildCache.getAll(affectedGuilds.map { it.id }, skipCache = true)
+                .doOnNext { synced.add(it.id) }
+                // Retry the guilds we failed to resubscribe to, or which we are no longer part of, one by one
+                .thenMany(Flux.defer { retrySync(affectedGuilds.filter { it.id !in synced }, synced) })
+                .doFinally {
+                    log.info("Synchronized [${synced.size}/${affectedGuilds.size}] guilds in ${event.shard} (Signal: $it)")
+                }
+    }
+
+    private fun retrySync(guilds: List<InternalGuild>, synced: MutableSet<Long>): Flux<Void> {
+        val monos = guilds.map { guild ->
             guildCache.get(guild.id, skipCache = true)
                     .then() // We don't care for the guild
                     .retry(2)
-                    .doOnSuccess { counter.incrementAndGet() }
+                    .doOnSuccess { synced.add(guild.id) }
                     .onErrorResume { e ->
                         Mono.from {
                             log.error("Exception while re-syncing guild. We are forced to unsubscribe", e)
                             GuildCacheInvalidationAgent.INSTANCE.invalidateGuild(guild)
                         }
                     }
-        }.toMutableList()
-
-        return Flux.merge(monos).doFinally {
-            log.info("Synchronized [${counter.get()}/${affectedGuilds.size}] guilds in ${event.shard} (Signal: $it)")
         }
+        return Flux.merge(monos)
     }
 
     private fun shutdownReviveHandling(event: ShardLifecycleEvent) {
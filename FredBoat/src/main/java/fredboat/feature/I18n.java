@@ -25,17 +25,23 @@
 
 package fredboat.feature;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import fredboat.db.DatabaseNotReadyException;
 import fredboat.definitions.Language;
 import fredboat.sentinel.Guild;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static fredboat.main.LauncherKt.getBotController;
 
@@ -46,11 +52,19 @@ public class I18n {
     public static FredBoatLocale DEFAULT = new FredBoatLocale(Language.EN_US);
     public static final HashMap<String, FredBoatLocale> LANGS = new HashMap<>();
 
+    /**
+     * Locales of the guilds, so translating doesn't need to fetch the guild config. Language changes made through
+     * {@link #set(Guild, String)} are applied right away, any other changes are picked up after the expiry.
+     */
+    private static final Cache<Long, FredBoatLocale> GUILD_LOCALES = CacheBuilder.newBuilder()
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
     public static void start() {
         for (Language language : Language.values()) {
             LANGS.put(language.getCode(), new FredBoatLocale(language));
         }
-        log.info("Loaded " + LANGS.size() + " languages: " + LANGS);
+        log.info("Registered " + LANGS.size() + " languages: " + LANGS);
     }
 
     @Nonnull
@@ -71,8 +85,13 @@ public class I18n {
 
     @Nonnull
     public static FredBoatLocale getLocale(long guild) {
+        FredBoatLocale cached = GUILD_LOCALES.getIfPresent(guild);
+        if (cached != null) return cached;
+
         try {
-            return LANGS.getOrDefault(getBotController().getGuildConfigService().fetchGuildConfig(guild).getLang(), DEFAULT);
+            FredBoatLocale locale = LANGS.getOrDefault(getBotController().getGuildConfigService().fetchGuildConfig(guild).getLang(), DEFAULT);
+            GUILD_LOCALES.put(guild, locale);
+            return locale;
         } catch (DatabaseNotReadyException e) {
             //don't log spam the full exceptions or logs
             return DEFAULT;
@@ -82,25 +101,80 @@ public class I18n {
         }
     }
 
+    /**
+     * Same as {@link #getLocale(long)}, without blocking the calling thread while the guild config is fetched
+     */
+    @Nonnull
+    public static Mono<FredBoatLocale> getLocaleMono(long guild) {
+        FredBoatLocale cached = GUILD_LOCALES.getIfPresent(guild);
+        if (cached != null) return Mono.just(cached);
+
+        return getBotController().getGuildConfigService().fetchGuildConfigMono(guild)
+                .map(config -> {
+                    FredBoatLocale locale = LANGS.getOrDefault(config.getLang(), DEFAULT);
+                    GUILD_LOCALES.put(guild, locale);
+                    return locale;
+                })
+                .onErrorResume(e -> {
+                    //don't log spam the full exceptions or logs
+                    if (!(e instanceof DatabaseNotReadyException)) log.error("Error when reading entity", e);
+                    return Mono.just(DEFAULT);
+                });
+    }
+
     public static void set(@Nonnull Guild guild, @Nonnull String lang) throws LanguageNotSupportedException {
         if (!LANGS.containsKey(lang))
             throw new LanguageNotSupportedException("Language not found");
 
         getBotController().getGuildConfigService().transformGuildConfig(guild.getId(), config -> config.setLang(lang));
+        GUILD_LOCALES.put(guild.getId(), LANGS.get(lang));
     }
 
     public static class FredBoatLocale {
 
         private final Language language;
-        private final ResourceBundle props;
+        /** Loaded on first use, as most languages are used by few guilds, if any */
+        @Nullable
+        private volatile ResourceBundle props;
+        private final Map<String, I18nTemplate> templates = new ConcurrentHashMap<>();
+        private final Map<String, I18nTemplate> rawTemplates = new ConcurrentHashMap<>();
 
-        FredBoatLocale(Language language) throws MissingResourceException {
+        FredBoatLocale(Language language) {
             this.language = language;
-            props = ResourceBundle.getBundle("lang." + language.getCode(), language.getLocale());
         }
 
+        /**
+         * @throws MissingResourceException if the language file is missing
+         */
         public ResourceBundle getProps() {
-            return props;
+            ResourceBundle result = props;
+            if (result == null) {
+                synchronized (this) {
+                    result = props;
+                    if (result == null) {
+                        result = ResourceBundle.getBundle("lang." + language.getCode(), language.getLocale());
+                        props = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the translation of the key, parsed for formatting with {@link java.text.MessageFormat} rules
+         * @throws MissingResourceException if there is no translation for the key
+         * @throws IllegalArgumentException if the translation is not a valid pattern
+         */
+        public I18nTemplate getTemplate(String key) {
+            return templates.computeIfAbsent(key, k -> I18nTemplate.compile(getProps().getString(k)));
+        }
+
+        /**
+         * @return the translation of the key, parsed for plain substitution of its placeholders
+         * @throws MissingResourceException if there is no translation for the key
+         */
+        public I18nTemplate getRawTemplate(String key) {
+            return rawTemplates.computeIfAbsent(key, k -> I18nTemplate.compileRaw(getProps().getString(k)));
         }
 
         public String getCode() {
@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.feature;
+
+import javax.annotation.Nullable;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A translation string parsed into its literals and placeholders, so it can be formatted repeatedly and by many threads
+ * at once without parsing it again.
+ * <p>
+ * Templates created by {@link #compile(String)} format like {@link MessageFormat#format(String, Object...)} does,
+ * including its quoting rules. Patterns with format types, like {0,number,#}, are left to a {@link MessageFormat}.
+ * Templates created by {@link #compileRaw(String)} only substitute the placeholders.
+ */
+public final class I18nTemplate {
+
+    private static final ThreadLocal<NumberFormat> NUMBER_FORMAT =
+            ThreadLocal.withInitial(() -> NumberFormat.getInstance(Locale.getDefault(Locale.Category.FORMAT)));
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = ThreadLocal.withInitial(() ->
+            DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, Locale.getDefault(Locale.Category.FORMAT)));
+
+    /** literals[i] precedes the placeholder arguments[i], the last literal follows the last placeholder */
+    private final String[] literals;
+    private final int[] arguments;
+    private final boolean raw;
+    /** Only set for patterns we don't parse ourselves. Not thread safe, so formatting synchronizes on it */
+    @Nullable
+    private final MessageFormat messageFormat;
+
+    private I18nTemplate(List<String> literals, List<Integer> arguments, boolean raw) {
+        this.literals = literals.toArray(new String[0]);
+        this.arguments = arguments.stream().mapToInt(Integer::intValue).toArray();
+        this.raw = raw;
+        this.messageFormat = null;
+    }
+
+    private I18nTemplate(MessageFormat messageFormat) {
+        this.literals = new String[0];
+        this.arguments = new int[0];
+        this.raw = false;
+        this.messageFormat = messageFormat;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid, like {@link MessageFormat} does
+     */
+    public static I18nTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean inQuote = false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else if (ch == '{' && !inQuote) {
+                int end = pattern.indexOf('}', i);
+                if (end < 0) throw new IllegalArgumentException("Unmatched braces in the pattern.");
+                String argument = pattern.substring(i + 1, end);
+                if (!isIndex(argument)) return new I18nTemplate(new MessageFormat(pattern));
+                literals.add(literal.toString());
+                literal.setLength(0);
+                arguments.add(Integer.parseInt(argument));
+                i = end;
+            } else {
+                literal.append(ch);
+            }
+        }
+        literals.add(literal.toString());
+        return new I18nTemplate(literals, arguments, false);
+    }
+
+    /**
+     * Replaces {0}, {1}, ... with the string values of the arguments. Quotes have no special meaning.
+     */
+    public static I18nTemplate compileRaw(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        int literalStart = 0;
+        int i = pattern.indexOf('{');
+        while (i >= 0) {
+            int end = pattern.indexOf('}', i);
+            if (end < 0) break;
+            String argument = pattern.substring(i + 1, end);
+            if (isIndex(argument)) {
+                literals.add(pattern.substring(literalStart, i));
+                arguments.add(Integer.parseInt(argument));
+                literalStart = end + 1;
+            }
+            i = pattern.indexOf('{', i + 1);
+        }
+        literals.add(pattern.substring(literalStart));
+        return new I18nTemplate(literals, arguments, true);
+    }
+
+    private static boolean isIndex(String argument) {
+        if (argument.isEmpty() || argument.length() > 9) return false;
+        for (int i = 0; i < argument.length(); i++) {
+            if (!Character.isDigit(argument.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    public String format(Object... args) {
+        if (messageFormat != null) {
+            synchronized (messageFormat) {
+                return messageFormat.format(args);
+            }
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < arguments.length; i++) {
+            result.append(literals[i]);
+            int index = arguments[i];
+            if (args == null || index >= args.length) {
+                // Unused placeholders are kept as they are
+                result.append('{').append(index).append('}');
+            } else {
+                appendArgument(result, args[index]);
+            }
+        }
+        result.append(literals[arguments.length]);
+        return result.toString();
+    }
+
+    private void appendArgument(StringBuilder result, @Nullable Object arg) {
+        if (raw || arg == null || arg instanceof String) {
+            result.append(arg);
+        } else if (arg instanceof Number) {
+            result.append(NUMBER_FORMAT.get().format(arg));
+        } else if (arg instanceof Date) {
+            result.append(DATE_FORMAT.get().format(arg));
+        } else {
+            result.append(arg.toString());
+        }
+    }
+}
@@ -78,6 +78,13 @@ public class PatronageChecker {
         return CacheUtil.getUncheckedUnwrapped(cache, guild.getId());
     }
 
+    /**
+     * Load the status of a guild ahead of its first command. This blocks while the patron api is queried.
+     */
+    public void prefetch(long guildId) {
+        CacheUtil.getUncheckedUnwrapped(cache, guildId);
+    }
+
     public class Status {
 
         private final boolean valid;
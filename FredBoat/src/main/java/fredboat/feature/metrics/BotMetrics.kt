@@ -67,6 +67,7 @@ class BotMetrics(
         }
 
         statsAgent.addAction(StatsAgent.ActionAdapter("music player stats for fredboat") {
+            playerRegistry.reconcilePlayingCount()
             musicPlayerStats.count(playerRegistry)
         })
 
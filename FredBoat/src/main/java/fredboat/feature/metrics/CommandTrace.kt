@@ -0,0 +1,179 @@
+package fredboat.feature.metrics
+
+import kotlinx.coroutines.ThreadContextElement
+import kotlinx.coroutines.asContextElement
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import reactor.core.publisher.Mono
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Timings of the stages a command goes through, from the user sending the message to us replying to it.
+ *
+ * The trace of a command is kept in a thread local while the command is handled, and is carried along by its
+ * coroutines through [asContextElement]. Requests made to the Sentinel while a trace is current carry its [id] in the
+ * [HEADER] header, and replies and permission checks among them are timed as part of the trace. Requests made while
+ * their stage is already being measured by an enclosing [measure] block are not timed again.
+ *
+ * Once the command was executed and the requests timed so far have completed, the total of each recorded stage is
+ * observed once in [Metrics.commandStageDuration]. Replies and permission checks can happen while the command
+ * executes, so the stages don't necessarily add up to the total. Traces of commands slower than
+ * [SLOW_THRESHOLD_MILLIS] are logged, at most once every [SLOW_LOG_INTERVAL_MILLIS].
+ *
+ * @param messageId id of the message that triggered the command, which also serves as the id of the trace
+ */
+class CommandTrace(val messageId: Long) {
+
+    enum class Stage {
+        /** From the message being sent until we receive it from the Sentinel */
+        DELIVERY,
+        /** Parsing the message, except for fetching the guild */
+        PARSE,
+        GUILD_FETCH,
+        /** Module checks and permission requests to the Sentinel */
+        PERMS,
+        /** Waiting for the command executor */
+        QUEUE,
+        EXECUTE,
+        /** Sending and editing messages */
+        REPLY;
+
+        val label = name.toLowerCase()
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(CommandTrace::class.java)
+        const val HEADER = "x-fredboat-trace"
+        const val SLOW_THRESHOLD_MILLIS = 2000L
+        const val SLOW_LOG_INTERVAL_MILLIS = 10_000L
+        private const val DISCORD_EPOCH = 1420070400000L
+
+        private val current = ThreadLocal<CommandTrace?>()
+        private val histograms = Stage.values().map { Metrics.commandStageDuration.labels(it.label) }
+        private val lastSlowLog = AtomicLong()
+
+        /** @return the trace of the command being handled by this thread, if any */
+        fun current(): CommandTrace? = current.get()
+
+        private fun timestampOf(snowflake: Long) = (snowflake ushr 22) + DISCORD_EPOCH
+    }
+
+    val id: String = messageId.toString()
+    private val receivedMillis = System.currentTimeMillis()
+    private val receivedNanos = System.nanoTime()
+    private val stageNanos = AtomicLongArray(Stage.values().size)
+    /** Bit mask of the stages that were recorded at all */
+    private val recordedStages = AtomicInteger()
+    /** Number of [measure] blocks running per stage */
+    private val measuring = AtomicIntegerArray(Stage.values().size)
+    /** The command itself until [finish] is called, plus the monos being timed */
+    private val pending = AtomicInteger(1)
+    private val published = AtomicBoolean()
+    private val replied = AtomicBoolean()
+    /** Simple name of the command class, once the command was parsed */
+    @Volatile
+    var command: String? = null
+        private set
+
+    fun asContextElement(): ThreadContextElement<CommandTrace?> = current.asContextElement(this)
+
+    /**
+     * Called once the message turned out to be a command, to record its delivery and parse time. Messages that aren't
+     * commands are not part of the stage metrics.
+     */
+    fun onParsed(command: String, parseNanos: Long) {
+        this.command = command
+        val delivery = receivedMillis - timestampOf(messageId)
+        record(Stage.DELIVERY, TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delivery)))
+        record(Stage.PARSE, parseNanos)
+    }
+
+    fun record(stage: Stage, nanos: Long) {
+        stageNanos.addAndGet(stage.ordinal, nanos)
+        recordedStages.getAndAccumulate(1 shl stage.ordinal) { mask, bit -> mask or bit }
+    }
+
+    /** @return the nanos recorded for the stage so far */
+    operator fun get(stage: Stage) = stageNanos.get(stage.ordinal)
+
+    inline fun <T> measure(stage: Stage, block: () -> T): T {
+        val start = enter(stage)
+        try {
+            return block()
+        } finally {
+            exit(stage, start)
+        }
+    }
+
+    @PublishedApi
+    internal fun enter(stage: Stage): Long {
+        measuring.incrementAndGet(stage.ordinal)
+        return System.nanoTime()
+    }
+
+    @PublishedApi
+    internal fun exit(stage: Stage, start: Long) {
+        record(stage, System.nanoTime() - start)
+        measuring.decrementAndGet(stage.ordinal)
+    }
+
+    /**
+     * Times the mono from being subscribed to until it terminates, unless it is subscribed to from within a [measure]
+     * block of the same stage, which already covers it.
+     */
+    fun <T> measure(stage: Stage, mono: Mono<T>): Mono<T> = Mono.defer {
+        if (measuring.get(stage.ordinal) > 0) return@defer mono
+        pending.incrementAndGet()
+        val start = System.nanoTime()
+        mono.doFinally {
+            record(stage, System.nanoTime() - start)
+            release()
+        }
+    }
+
+    /**
+     * Records the latency between the command and the first reply to it, going by the creation times of both messages.
+     */
+    fun onReplied(replyId: Long) {
+        if (!replied.compareAndSet(false, true)) return
+        val seconds = (timestampOf(replyId) - timestampOf(messageId)) / 1000.0
+        Metrics.commandReplyLatency.observe(seconds)
+        command?.let { Metrics.totalResponseTime.labels(it).observe(seconds) }
+    }
+
+    /**
+     * Called once the command was executed. The stages are observed, and the trace is logged if it was slow, as soon as
+     * the replies and permission requests timed so far have completed. Anything timed after that is not observed.
+     */
+    fun finish() = release()
+
+    private fun release() {
+        if (pending.decrementAndGet() == 0 && published.compareAndSet(false, true)) publish()
+    }
+
+    private fun publish() {
+        val recorded = recordedStages.get()
+        for (stage in Stage.values()) {
+            if ((recorded and (1 shl stage.ordinal)) == 0) continue
+            histograms[stage.ordinal].observe(this[stage] / 1_000_000_000.0)
+        }
+
+        val totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receivedNanos) +
+                TimeUnit.NANOSECONDS.toMillis(this[Stage.DELIVERY])
+        if (totalMillis < SLOW_THRESHOLD_MILLIS) return
+
+        val now = System.currentTimeMillis()
+        val last = lastSlowLog.get()
+        if (now - last < SLOW_LOG_INTERVAL_MILLIS || !lastSlowLog.compareAndSet(last, now)) return
+        log.warn("Slow command {} took {}ms, trace {}: {}", command, totalMillis, id, toString())
+    }
+
+    override fun toString() = Stage.values().joinToString(prefix = "{", postfix = "}") {
+        it.label + "=" + TimeUnit.NANOSECONDS.toMillis(this[it]) + "ms"
+    }
+}
@@ -32,6 +32,7 @@ import fredboat.feature.metrics.collectors.FredBoatCollector;
 import fredboat.feature.metrics.collectors.ShardStatusCollector;
 import fredboat.feature.metrics.collectors.ThreadPoolCollector;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 import io.prometheus.client.Summary;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
@@ -104,6 +105,12 @@ public class Metrics {
             .help("Total messages received by users that are blacklisted. Might include bots.")
             .register();
 
+    public static final Counter messagesPrefiltered = Counter.build()
+            .name("fredboat_messages_prefiltered_total")
+            .help("Total guild messages checked for a command prefix before parsing")
+            .labelNames("result") // accepted, rejected
+            .register();
+
     public static final Counter commandsRatelimited = Counter.build()
             .name("fredboat_commands_ratelimited_total")
             .help("Total ratelimited commands")
@@ -134,6 +141,11 @@ public class Metrics {
             .help("Total failed track loads by the audio loader")
             .register();
 
+    public static final Gauge playingPlayersDrift = Gauge.build()
+            .name("fredboat_music_playing_players_drift")
+            .help("Difference between the counted and the actual playing players at the last reconciliation")
+            .register();
+
     public static final Counter voiceChannelsCleanedUp = Counter.build()
             .name("fredboat_music_voicechannels_cleanedup_total")
             .help("Total voice channels that were cleaned up by the voice channel agent")
@@ -180,7 +192,7 @@ public class Metrics {
             .name("fredboat_total_message_response_duration_seconds")
             .help("Response duration between command message and answer message creation times.")
             .labelNames("class") // use the simple name of the command class: PlayCommand, DanceCommand, ShardsCommand etc
-            .register(); // TODO investigate unused
+            .register(); // observed by CommandTrace
 
     public static final Counter handledExceptions = Counter.build()
             .name("fredboat_handled_exceptions_total")
@@ -206,6 +218,70 @@ public class Metrics {
             .labelNames("total_amount") //how many choices were multiselected, e.g. 2, 3, 4, 5
             .register();
 
+    public static final Gauge commandsActive = Gauge.build()
+            .name("fredboat_commands_active")
+            .help("Commands that are being executed, including suspended ones")
+            .labelNames("pool") // cpu, io
+            .register();
+
+    public static final Gauge commandsQueued = Gauge.build()
+            .name("fredboat_commands_queued")
+            .help("Commands waiting for their pool or for other commands of their guild to complete")
+            .labelNames("pool") // cpu, io
+            .register();
+
+    public static final Counter commandsRejected = Counter.build()
+            .name("fredboat_commands_rejected_total")
+            .help("Total commands rejected because too many commands were queued")
+            .labelNames("pool", "reason") // cpu, io; pool, guild
+            .register();
+
+    //command tracing, see CommandTrace
+
+    public static final Histogram commandStageDuration = Histogram.build()
+            .name("fredboat_command_stage_duration_seconds")
+            .help("Time spent in each stage of handling a command, observed once per executed command. Replies and permission checks can overlap the execution.")
+            .labelNames("stage") // delivery, parse, guild_fetch, perms, queue, execute, reply
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .register();
+
+    public static final Histogram commandReplyLatency = Histogram.build()
+            .name("fredboat_command_reply_latency_seconds")
+            .help("Time between a command message and our first reply to it, going by their creation times")
+            .buckets(0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30)
+            .register();
+
+    //sentinel events
+
+    public static final Gauge eventStripeQueueDepth = Gauge.build()
+            .name("fredboat_event_stripe_queue_depth")
+            .help("Events waiting to be handled by a stripe of the event dispatcher")
+            .labelNames("stripe") //index of the stripe
+            .register();
+
+    public static final Histogram eventStripeWaitTime = Histogram.build()
+            .name("fredboat_event_stripe_wait_seconds")
+            .help("How long events waited in a stripe of the event dispatcher before being handled")
+            .labelNames("stripe") //index of the stripe
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10)
+            .register();
+
+    // ################################################################################
+    // ##                           Backend caches
+    // ################################################################################
+
+    public static final Counter cacheSoftMisses = Counter.build()
+            .name("fredboat_backend_cache_soft_misses_total")
+            .help("Total lookups of stale entities, which were served while being reloaded in the background")
+            .labelNames("cache") //name of the cache, like RestGuildConfigService
+            .register();
+
+    public static final Counter cacheHardMisses = Counter.build()
+            .name("fredboat_backend_cache_hard_misses_total")
+            .help("Total lookups of missing entities, which had to wait for the backend")
+            .labelNames("cache")
+            .register();
+
     // ################################################################################
     // ##                           Http stats
     // ################################################################################
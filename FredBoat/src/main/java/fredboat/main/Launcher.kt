@@ -44,7 +44,8 @@ class Launcher(
         private val statsAgent: StatsAgent,
         private val invalidationAgent: GuildCacheInvalidationAgent,
         private val voiceChannelCleanupAgent: VoiceChannelCleanupAgent,
-        private val carbonitexAgent: CarbonitexAgent
+        private val carbonitexAgent: CarbonitexAgent,
+        private val blacklistSyncAgent: BlacklistSyncAgent
 ) : ApplicationRunner, ApplicationContextAware {
 
     init {
@@ -70,6 +71,7 @@ class Launcher(
 
         FredBoatAgent.start(statsAgent)
         FredBoatAgent.start(invalidationAgent)
+        if (configProvider.appConfig.useAutoBlacklist()) FredBoatAgent.startNow(blacklistSyncAgent)
 
         val carbonKey = configProvider.credentials.carbonKey
         if (configProvider.appConfig.isMusicDistribution && !carbonKey.isEmpty()) FredBoatAgent.start(carbonitexAgent)
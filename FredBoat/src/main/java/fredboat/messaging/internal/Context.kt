@@ -42,7 +42,6 @@ import kotlinx.coroutines.reactive.awaitSingle
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import reactor.core.publisher.Mono
-import java.text.MessageFormat
 import java.util.*
 import javax.annotation.CheckReturnValue
 
@@ -71,7 +70,7 @@ abstract class Context {
     //                         Internal context stuff
     // ********************************************************************************
 
-    private var i18n: ResourceBundle? = null
+    private var locale: I18n.FredBoatLocale? = null
 
     // ********************************************************************************
     //                         Convenience reply methods
@@ -198,10 +197,11 @@ abstract class Context {
      */
     @CheckReturnValue
     fun i18n(key: String): String {
-        return if (getI18n().containsKey(key)) {
-            getI18n().getString(key)
+        val props = getI18n()
+        return if (props.containsKey(key)) {
+            props.getString(key)
         } else {
-            log.warn("Missing language entry for key {} in language {}", key, I18n.getLocale(guild).code)
+            log.warn("Missing language entry for key {} in language {}", key, i18nLocale().code)
             I18n.DEFAULT.props.getString(key)
         }
     }
@@ -219,22 +219,31 @@ abstract class Context {
             log.warn("Context#i18nFormat() called with empty or null params, this is likely a bug.",
                     MessagingException("a stack trace to help find the source"))
         }
+        val locale = i18nLocale()
         return try {
-            MessageFormat.format(this.i18n(key), *params)
+            val template = if (locale.props.containsKey(key)) {
+                locale.getTemplate(key)
+            } else {
+                log.warn("Missing language entry for key {} in language {}", key, locale.code)
+                I18n.DEFAULT.getTemplate(key)
+            }
+            template.format(*params)
         } catch (e: IllegalArgumentException) {
             log.warn("Failed to format key '{}' for language '{}' with following parameters: {}",
-                    key, getI18n().baseBundleName, params, e)
+                    key, locale.props.baseBundleName, params, e)
             //fall back to default props
-            MessageFormat.format(I18n.DEFAULT.props.getString(key), *params)
+            I18n.DEFAULT.getTemplate(key).format(*params)
         }
 
     }
 
-    fun getI18n(): ResourceBundle {
-        var result = i18n
+    fun getI18n(): ResourceBundle = i18nLocale().props
+
+    private fun i18nLocale(): I18n.FredBoatLocale {
+        var result = locale
         if (result == null) {
-            result = I18n.get(guild)
-            i18n = result
+            result = I18n.getLocale(guild)
+            locale = result
         }
         return result
     }
@@ -45,7 +45,7 @@ object PermsUtil {
         member.hasPermission(Permission.ADMINISTRATOR).awaitSingle()
         -> PermissionLevel.ADMIN
         else -> {
-            val gp = Launcher.botController.guildPermsService.fetchGuildPermissions(member.guild)
+            val gp = Launcher.botController.guildPermsService.fetchGuildPermissionsMono(member.guild).awaitSingle()
 
             when {
                 checkList(gp.adminList, member) -> PermissionLevel.ADMIN
@@ -99,7 +99,7 @@ object PermsUtil {
         var botAdmin = false
         for (id in Launcher.botController.appConfig.adminIds) {
             val r = member.guild.getRole(id)
-            if (member.id == id || r != null && member.roles.contains(r)) {
+            if (member.id == id || r != null && member.hasRole(r)) {
                 botAdmin = true
                 break
             }
@@ -117,7 +117,7 @@ object PermsUtil {
             if (id == member.id.toString()) return true
 
             val role = member.guild.getRole(id.toLong())
-            if (role != null && (role.isPublicRole || member.roles.contains(role)))
+            if (role != null && (role.isPublicRole || member.hasRole(role)))
                 return true
         }
 
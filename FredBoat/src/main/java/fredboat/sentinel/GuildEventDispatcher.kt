@@ -0,0 +1,100 @@
+package fredboat.sentinel
+
+import fredboat.feature.metrics.Metrics
+import it.unimi.dsi.fastutil.HashCommon
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.amqp.AmqpRejectAndDontRequeueException
+import org.springframework.amqp.rabbit.listener.RabbitListenerErrorHandler
+import org.springframework.amqp.rabbit.listener.exception.ListenerExecutionFailedException
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs events on a fixed amount of single threaded stripes. Events with the same key, usually a guild id, always
+ * end up on the same stripe and are handled in the order they were dispatched in, while events of different keys
+ * are handled in parallel.
+ *
+ * Each stripe holds at most [capacity] waiting events. Dispatching to a full stripe blocks the calling listener
+ * thread until there is room again, so unacked messages pile up in the broker instead of our heap. That also holds up
+ * the events of every other guild, so handlers must not block on the backend or the Sentinel; they should subscribe to
+ * the Mono APIs instead.
+ * Exceptions of the handlers are passed to the same error handler the rabbit listener uses.
+ */
+@Component
+class GuildEventDispatcher(
+        private val rabbitListenerErrorHandler: RabbitListenerErrorHandler,
+        private val capacity: Int
+) : DisposableBean {
+
+    @Autowired
+    constructor(rabbitListenerErrorHandler: RabbitListenerErrorHandler)
+            : this(rabbitListenerErrorHandler, STRIPE_CAPACITY)
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(GuildEventDispatcher::class.java)
+        const val STRIPES = 32
+        const val STRIPE_CAPACITY = 256
+
+        /** Waits for room in the queue of the stripe instead of rejecting the event */
+        private val blockWhenFull = RejectedExecutionHandler { task, executor ->
+            if (!executor.isShutdown) executor.queue.put(task)
+        }
+    }
+
+    private val stripes = Array(STRIPES) { Stripe(it) }
+
+    fun dispatch(key: Long, task: () -> Unit) {
+        stripes[stripeOf(key)].submit(task)
+    }
+
+    /** Snowflakes share a lot of their bits, so mix them before picking a stripe */
+    fun stripeOf(key: Long) = Math.floorMod(HashCommon.mix(key), STRIPES.toLong()).toInt()
+
+    override fun destroy() {
+        stripes.forEach { it.executor.shutdown() }
+    }
+
+    private inner class Stripe(index: Int) {
+        private val queueDepth = Metrics.eventStripeQueueDepth.labels(index.toString())
+        private val waitTime = Metrics.eventStripeWaitTime.labels(index.toString())
+        val executor = ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, LinkedBlockingQueue<Runnable>(capacity),
+                ThreadFactory { Thread(it, "event-stripe-$index").apply { isDaemon = true } }, blockWhenFull)
+
+        fun submit(task: () -> Unit) {
+            val enqueued = System.nanoTime()
+            queueDepth.inc()
+            executor.execute {
+                queueDepth.dec()
+                waitTime.observe((System.nanoTime() - enqueued) / 1_000_000_000.0)
+                try {
+                    task()
+                } catch (e: Exception) {
+                    onError(e)
+                }
+            }
+        }
+    }
+
+    /**
+     * The message has been acked when it was dispatched, so rejecting it without requeueing, which is what the error
+     * handler asks for, just means dropping it.
+     */
+    private fun onError(e: Exception) {
+        try {
+            rabbitListenerErrorHandler.handleError(null, null,
+                    ListenerExecutionFailedException("Caught exception while handling event", e, null))
+        } catch (rejected: AmqpRejectAndDontRequeueException) {
+            log.debug("Dropped rejected event", rejected)
+        } catch (t: Exception) {
+            log.error("Caught exception while handling event", t)
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package fredboat.sentinel
+
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fredboat.sentinel.entities.VoiceServerUpdate
+import fredboat.config.RabbitConfiguration
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import org.springframework.stereotype.Component
+
+/**
+ * Materializes an [InternalGuild] straight from the JSON of a guild subscribe response.
+ *
+ * Members make up nearly all of a large guild, so they are read token by token into the [MemberTable] of the guild
+ * instead of being bound to a list of [RawMember]s first. Roles and channels are few and are bound as usual.
+ *
+ * The guilds are returned as they were read. The caller has to call [InternalGuild.onLoaded] on them before using them.
+ */
+@Component
+class GuildReader {
+
+    private val mapper = RabbitConfiguration.createObjectMapper()
+
+    class Result(val guild: InternalGuild, val voiceServerUpdate: VoiceServerUpdate?)
+
+    /** @return null if the response is empty */
+    fun read(json: ByteArray): Result? {
+        if (json.isEmpty()) return null
+        mapper.factory.createParser(json).use { parser ->
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null
+            return readObject(parser)
+        }
+    }
+
+    /** Reads the response to a [GuildSubscribeBatchRequest], which is an array of guilds */
+    fun readAll(json: ByteArray): List<Result> {
+        if (json.isEmpty()) return emptyList()
+        mapper.factory.createParser(json).use { parser ->
+            if (parser.nextToken() != JsonToken.START_ARRAY) return emptyList()
+            val results = mutableListOf<Result>()
+            while (parser.nextToken() == JsonToken.START_OBJECT) results.add(readObject(parser))
+            return results
+        }
+    }
+
+    private fun readObject(parser: JsonParser): Result {
+        // The id is serialized first, which we rely on to create the guild before reading its members
+        if (parser.nextToken() == JsonToken.FIELD_NAME && parser.currentName == "id") {
+            parser.nextToken()
+            return readGuild(parser, InternalGuild(parser.valueAsLong))
+        }
+
+        // Fallback for guilds that don't start with the id
+        val raw = mapper.readValue(parser, RawGuild::class.java)
+        return Result(InternalGuild(raw.id).apply { update(raw) }, raw.voiceServerUpdate)
+    }
+
+    private fun readGuild(parser: JsonParser, guild: InternalGuild): Result {
+        var name = ""
+        var owner: Long? = null
+        var roles = emptyList<RawRole>()
+        var textChannels = emptyList<RawTextChannel>()
+        var voiceChannels = emptyList<RawVoiceChannel>()
+        var voiceServerUpdate: VoiceServerUpdate? = null
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val field = parser.currentName
+            val token = parser.nextToken()
+            if (token == JsonToken.VALUE_NULL) continue
+            when (field) {
+                "name" -> name = parser.text
+                "owner" -> owner = parser.valueAsLong
+                "members" -> readMembers(parser, guild)
+                "roles" -> roles = readList(parser, RawRole::class.java)
+                "textChannels" -> textChannels = readList(parser, RawTextChannel::class.java)
+                "voiceChannels" -> voiceChannels = readList(parser, RawVoiceChannel::class.java)
+                "voiceServerUpdate" -> voiceServerUpdate = mapper.readValue(parser, VoiceServerUpdate::class.java)
+                else -> parser.skipChildren()
+            }
+        }
+
+        // Members can precede the roles in the payload, in which case their roles are resolved here
+        guild.updateRoles(roles)
+        guild.updateGuild(name, owner, textChannels, voiceChannels)
+        return Result(guild, voiceServerUpdate)
+    }
+
+    private fun readMembers(parser: JsonParser, guild: InternalGuild) {
+        val roles = LongArrayList()
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            var id = 0L
+            var name = ""
+            var nickname: String? = null
+            var discrim = ""
+            var bot = false
+            roles.clear()
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val field = parser.currentName
+                val token = parser.nextToken()
+                if (token == JsonToken.VALUE_NULL) continue
+                when (field) {
+                    "id" -> id = parser.valueAsLong
+                    "name" -> name = parser.text
+                    "nickname" -> nickname = parser.text
+                    "discrim" -> discrim = parser.text
+                    "bot" -> bot = parser.booleanValue
+                    "roles" -> while (parser.nextToken() != JsonToken.END_ARRAY) roles.add(parser.valueAsLong)
+                    else -> parser.skipChildren() // Voice states are read from the voice channels
+                }
+            }
+            guild._members.put(id, name, nickname, discrim, bot, roles)
+        }
+    }
+
+    private fun <T> readList(parser: JsonParser, type: Class<T>): List<T> {
+        val list = mutableListOf<T>()
+        while (parser.nextToken() == JsonToken.START_OBJECT) list.add(mapper.readValue(parser, type))
+        return list
+    }
+}
@@ -0,0 +1,110 @@
+package fredboat.sentinel
+
+import com.fredboat.sentinel.entities.AppendSessionEvent
+import java.util.PriorityQueue
+
+/**
+ * Decides which queued shards may start their session next.
+ *
+ * Discord lets a bot identify one shard per rate limit bucket at a time, where the bucket of a shard is
+ * `shardId % maxConcurrency`. Each bucket has its own priority queue, with the prioritized shard first and the lowest
+ * shard ids after it, and may start its next shard [identifyDelay] milliseconds after its previous one has started.
+ *
+ * @param clock current time in milliseconds, can be replaced to test the pacing
+ */
+class IdentifyScheduler(
+        private val maxConcurrency: Int,
+        private val identifyDelay: Long,
+        private val prioritizedShard: Int,
+        private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    private inner class Bucket {
+        val queue = PriorityQueue<Int>(compareBy<Int> { it != prioritizedShard }.thenBy { it })
+        /** Shard that is being started */
+        var starting: AppendSessionEvent? = null
+        var nextIdentify = 0L
+    }
+
+    init {
+        require(maxConcurrency > 0) { "Max concurrency must be positive, got $maxConcurrency" }
+    }
+
+    private val buckets = Array(maxConcurrency) { Bucket() }
+    /** Queued sessions by shard id. Shards that were removed are skipped when they come up in the bucket queues */
+    private val queued = HashMap<Int, AppendSessionEvent>()
+
+    val size: Int
+        @Synchronized get() = queued.size
+
+    @Synchronized
+    fun isQueued(shardId: Int) = queued.containsKey(shardId)
+
+    @Synchronized
+    fun append(event: AppendSessionEvent) {
+        if (queued.put(event.shardId, event) == null) bucketOf(event.shardId).queue.add(event.shardId)
+    }
+
+    @Synchronized
+    fun remove(shardId: Int) {
+        queued.remove(shardId)
+    }
+
+    /**
+     * @param isAvailable whether the Sentinel of a session can be asked to start it
+     * @return the sessions to start now, at most one per bucket. Each of them needs to be reported back through
+     * [onStarted] or [onFailed] before its bucket starts another one
+     */
+    @Synchronized
+    fun poll(isAvailable: (AppendSessionEvent) -> Boolean): List<AppendSessionEvent> {
+        val now = clock()
+        val due = mutableListOf<AppendSessionEvent>()
+        for (bucket in buckets) {
+            if (bucket.starting != null || now < bucket.nextIdentify) continue
+
+            val unavailable = mutableListOf<Int>()
+            while (true) {
+                val shardId = bucket.queue.poll() ?: break
+                val event = queued[shardId] ?: continue
+                if (!isAvailable(event)) {
+                    unavailable.add(shardId)
+                    continue
+                }
+                bucket.starting = event
+                due.add(event)
+                break
+            }
+            bucket.queue.addAll(unavailable)
+        }
+        return due
+    }
+
+    @Synchronized
+    fun onStarted(event: AppendSessionEvent) {
+        val bucket = bucketOf(event.shardId)
+        bucket.starting = null
+        bucket.nextIdentify = clock() + identifyDelay
+        queued.remove(event.shardId)
+    }
+
+    /** The session stays queued, and is retried after the delay as we can't tell whether it identified */
+    @Synchronized
+    fun onFailed(event: AppendSessionEvent) {
+        val bucket = bucketOf(event.shardId)
+        bucket.starting = null
+        bucket.nextIdentify = clock() + identifyDelay
+        if (queued.containsKey(event.shardId) && event.shardId !in bucket.queue) bucket.queue.add(event.shardId)
+    }
+
+    /** @return milliseconds until a bucket that is neither starting a shard nor empty may start one */
+    @Synchronized
+    fun millisUntilNext(): Long? {
+        val now = clock()
+        return buckets.asSequence()
+                .filter { it.starting == null && it.queue.isNotEmpty() }
+                .map { Math.max(0L, it.nextIdentify - now) }
+                .min()
+    }
+
+    private fun bucketOf(shardId: Int) = buckets[shardId % maxConcurrency]
+}
@@ -13,10 +13,15 @@ import org.springframework.stereotype.Service
 import java.time.Instant
 import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * A single consumer keeps the events in the order they were received in. It only hands them to the
+ * [GuildEventDispatcher], which runs them in parallel and blocks this consumer when it falls behind.
+ */
 @Service
-@RabbitListener(queues = ["#{eventQueue}"], errorHandler = "rabbitListenerErrorHandler", concurrency = "50")
+@RabbitListener(queues = ["#{eventQueue}"], errorHandler = "rabbitListenerErrorHandler", concurrency = "1")
 class RabbitConsumer(
         private val guildCache: GuildCache,
+        private val dispatcher: GuildEventDispatcher,
         private val sentinelTracker: SentinelTracker,
         private val sentinelSessionController: SentinelSessionController,
         eventLogger: EventLogger,
@@ -31,14 +36,29 @@ class RabbitConsumer(
         private val log: Logger = LoggerFactory.getLogger(RabbitConsumer::class.java)
     }
     private val shardStatuses = ConcurrentHashMap<Int, ShardStatus>()
-    private val eventHandlers: List<SentinelEventHandler> = listOf(
+    private val dispatchTable = EventDispatchTable(listOf(
             eventLogger,
             guildHandler,
             audioHandler,
             messageHandler,
             musicPersistenceHandler,
             shardReviveHandler
-    )
+    ))
+    private val shardStatusHandlers = dispatchTable[ShardStatusChange::class.java]
+    private val shardLifecycleHandlers = dispatchTable[ShardLifecycleEvent::class.java]
+    private val guildJoinHandlers = dispatchTable[GuildJoinEvent::class.java]
+    private val guildLeaveHandlers = dispatchTable[GuildLeaveEvent::class.java]
+    private val voiceJoinHandlers = dispatchTable[VoiceJoinEvent::class.java]
+    private val voiceLeaveHandlers = dispatchTable[VoiceLeaveEvent::class.java]
+    private val voiceMoveHandlers = dispatchTable[VoiceMoveEvent::class.java]
+    private val voiceServerUpdateHandlers = dispatchTable[VoiceServerUpdate::class.java]
+    private val guildMessageHandlers = dispatchTable[MessageReceivedEvent::class.java]
+    private val privateMessageHandlers = dispatchTable[PrivateMessageReceivedEvent::class.java]
+    private val messageDeleteHandlers = dispatchTable[MessageDeleteEvent::class.java]
+
+    init {
+        log.info("Event dispatch table: {}", dispatchTable)
+    }
 
     @RabbitHandler(isDefault = true)
     fun default(msg: Any) = log.warn("Unhandled event $msg")
@@ -49,72 +69,72 @@ class RabbitConsumer(
     /* Shard lifecycle */
 
     @RabbitHandler
-    fun receive(event: ShardStatusChange) {
+    fun receive(event: ShardStatusChange) = dispatcher.dispatch(event.shard.id.toLong()) {
         event.shard.apply {
             log.info("Shard [$id / $total] status ${shardStatuses.getOrDefault(id, "<new>")} => $status")
             shardStatuses[id] = status
         }
-        eventHandlers.forEach { it.onShardStatusChange(event) }
+        for (handler in shardStatusHandlers) handler.onShardStatusChange(event)
     }
 
     @RabbitHandler
-    fun receive(event: ShardLifecycleEvent) {
-        eventHandlers.forEach { it.onShardLifecycle(event) }
+    fun receive(event: ShardLifecycleEvent) = dispatcher.dispatch(event.shard.id.toLong()) {
+        for (handler in shardLifecycleHandlers) handler.onShardLifecycle(event)
     }
 
     /* Guild events */
 
     @RabbitHandler
-    fun receive(event: GuildJoinEvent) {
+    fun receive(event: GuildJoinEvent) = dispatcher.dispatch(event.guild) {
         log.info("Joined guild ${event.guild}")
+        if (guildJoinHandlers.isEmpty()) return@dispatch
         getGuild(event.guild) { guild ->
-            eventHandlers.forEach { it.onGuildJoin(guild) }
+            for (handler in guildJoinHandlers) handler.onGuildJoin(guild)
         }
-
     }
 
     @RabbitHandler
-    fun receive(event: GuildLeaveEvent) {
+    fun receive(event: GuildLeaveEvent) = dispatcher.dispatch(event.guild) {
         log.info("Left guild ${event.guild}")
         guildCache.getIfCached(event.guild)?.let {
             (it as InternalGuild).onSelfLeaving()
             guildCache.cache.remove(event.guild)
         }
         val instant = Instant.ofEpochMilli(event.joinTime)
-        eventHandlers.forEach { it.onGuildLeave(event.guild, instant) }
+        for (handler in guildLeaveHandlers) handler.onGuildLeave(event.guild, instant)
     }
 
     /* Voice events */
 
     @RabbitHandler
-    fun receive(event: VoiceJoinEvent) {
-        val guild = guildCache.getIfCached(event.guild) ?: return
+    fun receive(event: VoiceJoinEvent) = dispatcher.dispatch(event.guild) {
+        val guild = guildCache.getIfCached(event.guild) ?: return@dispatch
         val channel = guild.getVoiceChannel(event.channel)
         val member = guild.getMember(event.member)
 
         if (channel == null) throw AmqpRejectAndDontRequeueException("Got VoiceJoinEvent for unknown channel ${event.channel}")
         if (member == null) throw AmqpRejectAndDontRequeueException("Got VoiceJoinEvent for unknown member ${event.member}")
-        (channel as InternalVoiceChannel).handleVoiceJoin(member)
+        (guild as InternalGuild).handleVoiceJoin(channel as InternalVoiceChannel, member)
 
-        eventHandlers.forEach { it.onVoiceJoin(channel, member) }
+        for (handler in voiceJoinHandlers) handler.onVoiceJoin(channel, member)
     }
 
     @RabbitHandler
-    fun receive(event: VoiceLeaveEvent) {
-        val guild = guildCache.getIfCached(event.guild) ?: return
+    fun receive(event: VoiceLeaveEvent) = dispatcher.dispatch(event.guild) {
+        val guild = guildCache.getIfCached(event.guild) ?: return@dispatch
         val channel = guild.getVoiceChannel(event.channel)
         val member = guild.getMember(event.member)
 
-        (guild as InternalGuild).removeMemberFromAllVoiceChannels(event.member)
+        (guild as InternalGuild).handleVoiceLeave(event.member)
         if (channel == null) throw AmqpRejectAndDontRequeueException("Got VoiceLeaveEvent for unknown channel ${event.channel}")
         if (member == null) throw AmqpRejectAndDontRequeueException("Got VoiceLeaveEvent for unknown member ${event.member}")
 
-        eventHandlers.forEach { it.onVoiceLeave(channel, member) }
+        for (handler in voiceLeaveHandlers) handler.onVoiceLeave(channel, member)
     }
 
     @RabbitHandler
-    fun receive(event: VoiceMoveEvent) {
-        val guild = guildCache.getIfCached(event.guild) ?: return
+    fun receive(event: VoiceMoveEvent) = dispatcher.dispatch(event.guild) {
+        val guild = guildCache.getIfCached(event.guild) ?: return@dispatch
         val old = guild.getVoiceChannel(event.oldChannel)
         val new = guild.getVoiceChannel(event.newChannel)
         val member = guild.getMember(event.member)
@@ -122,49 +142,62 @@ class RabbitConsumer(
         if (old == null) throw AmqpRejectAndDontRequeueException("Got VoiceMoveEvent for unknown old channel ${event.oldChannel}")
         if (new == null) throw AmqpRejectAndDontRequeueException("Got VoiceMoveEvent for unknown new channel ${event.newChannel}")
         if (member == null) throw AmqpRejectAndDontRequeueException("Got VoiceMoveEvent for unknown member ${event.member}")
-        (new as InternalVoiceChannel).handleVoiceJoin(member)
+        (guild as InternalGuild).handleVoiceJoin(new as InternalVoiceChannel, member)
 
-        eventHandlers.forEach { it.onVoiceMove(old, new, member) }
+        for (handler in voiceMoveHandlers) handler.onVoiceMove(old, new, member)
     }
 
     @RabbitHandler
     fun receive(event: VoiceServerUpdate) {
-        eventHandlers.forEach { it.onVoiceServerUpdate(event) }
+        for (handler in voiceServerUpdateHandlers) handler.onVoiceServerUpdate(event)
     }
 
     /* Message events */
 
     @RabbitHandler
-    fun receive(event: MessageReceivedEvent) {
-        // Before execution set some variables that can help with finding traces that belong to each other
-        MDC.putCloseable(SentryConfiguration.SENTRY_MDC_TAG_GUILD, event.guild.toString()).use {
-            MDC.putCloseable(SentryConfiguration.SENTRY_MDC_TAG_CHANNEL, event.channel.toString()).use {
-                MDC.putCloseable(SentryConfiguration.SENTRY_MDC_TAG_INVOKER, event.author.toString()).use {
-                    eventHandlers.forEach { it.onGuildMessage(event) }
-                }
-            }
+    fun receive(event: MessageReceivedEvent) = dispatcher.dispatch(event.guild) {
+        try {
+            for (handler in guildMessageHandlers) handler.onGuildMessage(event)
+        } catch (e: Exception) {
+            logWithMdc(e, event.guild.toString(), event.channel.toString(), event.author.toString())
         }
     }
 
     @RabbitHandler
-    fun receive(event: PrivateMessageReceivedEvent) {
+    fun receive(event: PrivateMessageReceivedEvent) = dispatcher.dispatch(event.author.id) {
         val author = User(event.author)
 
-        // Before execution set some variables that can help with finding traces that belong to each other
-        MDC.putCloseable(SentryConfiguration.SENTRY_MDC_TAG_GUILD, "PRIVATE").use {
-            MDC.putCloseable(SentryConfiguration.SENTRY_MDC_TAG_INVOKER, author.id.toString()).use {
-                eventHandlers.forEach { it.onPrivateMessage(author, event.content) }
-            }
+        try {
+            for (handler in privateMessageHandlers) handler.onPrivateMessage(author, event.content)
+        } catch (e: Exception) {
+            logWithMdc(e, "PRIVATE", null, author.id.toString())
         }
     }
 
     @RabbitHandler
-    fun receive(event: MessageDeleteEvent) {
-        eventHandlers.forEach { it.onGuildMessageDelete(
+    fun receive(event: MessageDeleteEvent) = dispatcher.dispatch(event.guild) {
+        for (handler in messageDeleteHandlers) handler.onGuildMessageDelete(
                 event.guild,
                 event.channel,
                 event.id
-        ) }
+        )
+    }
+
+    /**
+     * Tags the log of a failed message with variables that help with finding traces that belong to each other.
+     * Messages are by far the most frequent events, so the tags are only set once something went wrong.
+     */
+    private fun logWithMdc(e: Exception, guild: String, channel: String?, invoker: String) {
+        MDC.put(SentryConfiguration.SENTRY_MDC_TAG_GUILD, guild)
+        if (channel != null) MDC.put(SentryConfiguration.SENTRY_MDC_TAG_CHANNEL, channel)
+        MDC.put(SentryConfiguration.SENTRY_MDC_TAG_INVOKER, invoker)
+        try {
+            log.error("Caught exception while handling message", e)
+        } finally {
+            MDC.remove(SentryConfiguration.SENTRY_MDC_TAG_GUILD)
+            MDC.remove(SentryConfiguration.SENTRY_MDC_TAG_CHANNEL)
+            MDC.remove(SentryConfiguration.SENTRY_MDC_TAG_INVOKER)
+        }
     }
 
     /* Session */
@@ -175,49 +208,45 @@ class RabbitConsumer(
     /* Updates */
 
     @RabbitHandler
-    fun guildUpdate(event: GuildUpdateEvent) {
-        val cached = guildCache.getIfCached(event.guild.id) ?: return
+    fun guildUpdate(event: GuildUpdateEvent) = dispatcher.dispatch(event.guild.id) {
+        val cached = guildCache.getIfCached(event.guild.id) ?: return@dispatch
         (cached as InternalGuild).update(event.guild)
     }
 
     @RabbitHandler
-    fun updateMember(event: GuildMemberUpdate) {
-        val member = guildCache.getIfCached(event.guild)?.getMember(event.member.id) ?: return
-        (member as InternalMember).update(event.member)
+    fun updateMember(event: GuildMemberUpdate) = dispatcher.dispatch(event.guild) {
+        (guildCache.getIfCached(event.guild) as? InternalGuild)?.handleMemberUpdate(event.member)
     }
 
     @RabbitHandler
-    fun updateRole(event: RoleUpdate) {
-        val channel = guildCache.getIfCached(event.guild)?.getRole(event.role.id) ?: return
+    fun updateRole(event: RoleUpdate) = dispatcher.dispatch(event.guild) {
+        val channel = guildCache.getIfCached(event.guild)?.getRole(event.role.id) ?: return@dispatch
         (channel as InternalRole).update(event.role)
     }
 
     @RabbitHandler
-    fun updateTextChannel(event: TextChannelUpdate) {
-        val channel = guildCache.getIfCached(event.guild)?.getTextChannel(event.channel.id) ?: return
+    fun updateTextChannel(event: TextChannelUpdate) = dispatcher.dispatch(event.guild) {
+        val channel = guildCache.getIfCached(event.guild)?.getTextChannel(event.channel.id) ?: return@dispatch
         (channel as InternalTextChannel).update(event.channel)
     }
 
     @RabbitHandler
-    fun updateVoiceChannel(event: VoiceChannelUpdate) {
-        val channel = guildCache.getIfCached(event.guild)?.getVoiceChannel(event.channel.id) ?: return
-        (channel as InternalVoiceChannel).update(event.channel)
+    fun updateVoiceChannel(event: VoiceChannelUpdate) = dispatcher.dispatch(event.guild) {
+        (guildCache.getIfCached(event.guild) as? InternalGuild)?.handleVoiceChannelUpdate(event.channel)
     }
 
     @RabbitHandler
-    fun handleMemberAdd(event: GuildMemberJoinEvent) {
+    fun handleMemberAdd(event: GuildMemberJoinEvent) = dispatcher.dispatch(event.guild) {
         (guildCache.getIfCached(event.guild) as? InternalGuild)?.handleMemberAdd(event.member)
     }
 
     @RabbitHandler
-    fun handleMemberRemove(event: GuildMemberLeaveEvent) {
-        val guild = (guildCache.getIfCached(event.guild) as? InternalGuild) ?: return
-        guild.handleMemberRemove(event.member)
-        guild.removeMemberFromAllVoiceChannels(event.member)
+    fun handleMemberRemove(event: GuildMemberLeaveEvent) = dispatcher.dispatch(event.guild) {
+        (guildCache.getIfCached(event.guild) as? InternalGuild)?.handleMemberRemove(event.member)
     }
 
     @RabbitHandler
-    fun handlePermissionsUpdate(event: ChannelPermissionsUpdate) {
+    fun handlePermissionsUpdate(event: ChannelPermissionsUpdate) = dispatcher.dispatch(event.guild) {
         (guildCache.getIfCached(event.guild) as? InternalGuild)?.handlePermissionsUpdate(event)
     }
 
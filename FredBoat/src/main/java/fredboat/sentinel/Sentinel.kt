@@ -3,9 +3,12 @@ package fredboat.sentinel
 import com.fredboat.sentinel.SentinelExchanges
 import com.fredboat.sentinel.entities.*
 import fredboat.config.ApplicationInfo
+import fredboat.feature.metrics.CommandTrace
 import fredboat.perms.IPermissionSet
+import fredboat.util.HyperLogLog
 import org.springframework.amqp.core.MessageDeliveryMode
 import org.springframework.amqp.core.MessagePostProcessor
+import org.springframework.amqp.core.MessageProperties
 import org.springframework.amqp.rabbit.AsyncRabbitTemplate
 import org.springframework.amqp.rabbit.core.RabbitTemplate
 import org.springframework.stereotype.Component
@@ -49,17 +52,62 @@ class Sentinel(private val template: AsyncRabbitTemplate,
             request: Any,
             mayBeEmpty: Boolean = false,
             deliveryMode: MessageDeliveryMode = MessageDeliveryMode.NON_PERSISTENT,
-            transform: (response: R) -> T): Mono<T> = Mono.create<T> {
-        val postProcessor = MessagePostProcessor { processor ->
-            processor.messageProperties.deliveryMode = deliveryMode; processor
+            transform: (response: R) -> T): Mono<T> {
+        val trace = CommandTrace.current()
+        val mono = Mono.create<T> {
+            val postProcessor = MessagePostProcessor { processor ->
+                processor.messageProperties.deliveryMode = deliveryMode
+                if (trace != null) processor.messageProperties.setHeader(CommandTrace.HEADER, trace.id)
+                processor
+            }
+            template.convertSendAndReceive<R?>(exchange, routingKey, request, postProcessor).addCallback(
+                    { res ->
+                        try {
+                            if (res == null) {
+                                if (mayBeEmpty) it.success()
+                                else it.error(SentinelException("RPC response was null"))
+                            } else {
+                                if (trace != null && res is SendMessageResponse) trace.onReplied(res.messageId)
+                                it.success(transform(res))
+                            }
+                        } catch (e: Exception) {
+                            it.error(e.asCause(request))
+                        }
+                    },
+                    { t ->
+                        it.error(t.asCause(request))
+                    }
+            )
         }
-        template.convertSendAndReceive<R?>(exchange, routingKey, request, postProcessor).addCallback(
+
+        val stage = traceStageOf(request)
+        return if (trace != null && stage != null) trace.measure(stage, mono) else mono
+    }
+
+    /** @return the stage of a command that the request is part of, if it is timed at all */
+    private fun traceStageOf(request: Any): CommandTrace.Stage? = when (request) {
+        is SendMessageRequest, is SendEmbedRequest, is EditMessageRequest -> CommandTrace.Stage.REPLY
+        is GuildPermissionRequest, is ChannelPermissionRequest -> CommandTrace.Stage.PERMS
+        else -> null
+    }
+
+    /**
+     * Like [genericMonoSendAndReceive], but hands the serialized response body to [transform] so large responses
+     * can be read without binding them to the entity classes first
+     */
+    fun <T> rawMonoSendAndReceive(
+            exchange: String = SentinelExchanges.REQUESTS,
+            routingKey: String,
+            request: Any,
+            deliveryMode: MessageDeliveryMode = MessageDeliveryMode.NON_PERSISTENT,
+            transform: (body: ByteArray) -> T?): Mono<T> = Mono.create<T> {
+        val properties = MessageProperties().apply { this.deliveryMode = deliveryMode }
+        val message = blockingTemplate.messageConverter.toMessage(request, properties)
+        template.sendAndReceive(exchange, routingKey, message).addCallback(
                 { res ->
                     try {
-                        if (res == null) {
-                            if (mayBeEmpty) it.success()
-                            else it.error(SentinelException("RPC response was null"))
-                        } else it.success(transform(res))
+                        val result = res?.body?.let(transform)
+                        if (result != null) it.success(result) else it.success()
                     } catch (e: Exception) {
                         it.error(e.asCause(request))
                     }
@@ -275,6 +323,24 @@ class Sentinel(private val template: AsyncRabbitTemplate,
         )
     }
 
+    private fun getSentinelUserSketch(routingKey: String, precision: Int): Mono<HyperLogLog> =
+            genericMonoSendAndReceive<UserSketchResponse, HyperLogLog>(
+                    SentinelExchanges.REQUESTS,
+                    routingKey,
+                    UserSketchRequest(precision),
+                    transform = { HyperLogLog(it.precision, it.registers) }
+            )
+
+    /** Request a [HyperLogLog] sketch of the user IDs from each tracked Sentinel simultaneously
+     *  Errors are delayed till all requests have either completed or failed */
+    fun getSentinelUserSketches(precision: Int): Flux<HyperLogLog> {
+        return Flux.mergeSequentialDelayError(
+                tracker.sentinels.map { getSentinelUserSketch(it.key, precision) },
+                2,
+                1
+        )
+    }
+
     /** Provides a trace of the actual method invoked */
     private fun Throwable.asCause(request: Any) = SentinelException("Sentinel request failed $request", this)
 
@@ -9,15 +9,16 @@ import fredboat.config.property.AppConfigProperties
 import fredboat.util.DiscordUtil
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate
 import org.springframework.amqp.rabbit.core.RabbitTemplate
 import org.springframework.stereotype.Service
 import java.lang.Thread.sleep
-import java.util.concurrent.ConcurrentHashMap
 import kotlin.concurrent.thread
 
 @Service
 class SentinelSessionController(
         val rabbit: RabbitTemplate,
+        private val asyncRabbit: AsyncRabbitTemplate,
         val appConfig: AppConfigProperties,
         val sentinelTracker: SentinelTracker
 ) {
@@ -28,11 +29,13 @@ class SentinelSessionController(
         private const val HOME_GUILD_ID = 174820236481134592L // FredBoat Hangout is to be prioritized
         private const val IDENTIFY_DELAY = 5000L
         private const val QUEUE_SYNC_INTERVAL = 60000 // 1 minute
+        private const val MIN_SLEEP = 50L
+        private const val MAX_SLEEP = 1000L
     }
 
     @Suppress("LeakingThis")
     val homeShardId = DiscordUtil.getShardId(HOME_GUILD_ID, appConfig)
-    val queued = ConcurrentHashMap<Int, AppendSessionEvent>()
+    val scheduler = IdentifyScheduler(appConfig.maxConcurrency, IDENTIFY_DELAY, homeShardId)
     var worker: Thread? = null
     private var lastSyncRequest = 0L
 
@@ -42,13 +45,13 @@ class SentinelSessionController(
 
     fun appendSession(event: AppendSessionEvent) {
         event.totalShards.assertShardCount()
-        queued[event.shardId] = event
+        scheduler.append(event)
         log.info("Appended ${event.shardId}")
     }
 
     fun removeSession(event: RemoveSessionEvent) {
         event.totalShards.assertShardCount()
-        queued.remove(event.shardId)
+        scheduler.remove(event.shardId)
         log.info("Removed ${event.shardId}")
     }
 
@@ -58,27 +61,6 @@ class SentinelSessionController(
         }
     }
 
-    fun getNextShard(): AppendSessionEvent? {
-        // Figure out which sentinels we wish to command. This filters outs unresponsive ones
-        val sentinelKeys = sentinelTracker.sentinels
-                .asSequence()
-                .filter { System.currentTimeMillis() - it.time <= MAX_HELLO_AGE_MS }
-                .map { it.key }
-                .toList()
-
-        // Check for the home shard
-        queued[homeShardId]?.let {
-            if (sentinelKeys.contains(it.routingKey)) return it
-        }
-
-        // Otherwise just get the lowest possible shard
-        queued.values.sortedBy { it.shardId }.forEach {
-            if (sentinelKeys.contains(it.routingKey)) return it
-        }
-
-        return null
-    }
-
     private fun workerLoop() {
         if (lastSyncRequest + QUEUE_SYNC_INTERVAL < System.currentTimeMillis()) {
             // This is meant to deal with race conditions where our queues are out of sync
@@ -87,28 +69,37 @@ class SentinelSessionController(
             lastSyncRequest = System.currentTimeMillis()
         }
 
-        val next = getNextShard()
-
-        if (next == null) {
-            sleep(1000)
-            return
-        }
+        // Figure out which sentinels we wish to command. This filters outs unresponsive ones
+        val sentinelKeys = sentinelTracker.sentinels
+                .asSequence()
+                .filter { System.currentTimeMillis() - it.time <= MAX_HELLO_AGE_MS }
+                .map { it.key }
+                .toSet()
 
-        val request = RunSessionRequest(next.shardId)
-        log.info("Requesting ${next.routingKey} to start shard ${next.shardId}")
-        val started = System.currentTimeMillis()
-        val response = rabbit.convertSendAndReceive(SentinelExchanges.REQUESTS, next.routingKey, request)
-        log.debug("Sentinel responded with $response")
-        val timeTaken = System.currentTimeMillis() - started
+        scheduler.poll { sentinelKeys.contains(it.routingKey) }.forEach { start(it) }
 
-        if (response == null) {
-            throw RuntimeException("Failed to get ${next.routingKey} to start shard ${next.shardId}")
-        } else {
-            log.info("Started ${next.shardId} from ${next.routingKey}, took ${timeTaken}ms")
-        }
+        sleep(scheduler.millisUntilNext()?.coerceIn(MIN_SLEEP, MAX_SLEEP) ?: MAX_SLEEP)
+    }
 
-        sleep(IDENTIFY_DELAY)
-        queued.remove(next.shardId)
+    /** Shards of different rate limit buckets are started in parallel, so this doesn't wait for the Sentinel */
+    private fun start(event: AppendSessionEvent) {
+        val request = RunSessionRequest(event.shardId)
+        log.info("Requesting ${event.routingKey} to start shard ${event.shardId}")
+        val started = System.currentTimeMillis()
+        asyncRabbit.convertSendAndReceive<Any?>(SentinelExchanges.REQUESTS, event.routingKey, request).addCallback({ response ->
+            log.debug("Sentinel responded with $response")
+            val timeTaken = System.currentTimeMillis() - started
+            if (response == null) {
+                log.error("Failed to get ${event.routingKey} to start shard ${event.shardId}")
+                scheduler.onFailed(event)
+            } else {
+                log.info("Started ${event.shardId} from ${event.routingKey}, took ${timeTaken}ms")
+                scheduler.onStarted(event)
+            }
+        }, { e ->
+            log.error("Failed to get ${event.routingKey} to start shard ${event.shardId}", e)
+            scheduler.onFailed(event)
+        })
     }
 
     private fun startWorker() {
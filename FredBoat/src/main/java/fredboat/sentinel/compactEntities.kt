@@ -0,0 +1,243 @@
+package fredboat.sentinel
+
+import com.google.common.collect.Interner
+import com.google.common.collect.Interners
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongList
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import java.util.BitSet
+
+/*
+ * Storage of the cached guild entities. The wrapper entities in wrapperEntities.kt are views onto these.
+ *
+ * Writes happen on the event stripe of the guild, see GuildEventDispatcher, while reads may come from any thread.
+ * Each store guards itself with its own monitor.
+ */
+
+/** Names and discriminators repeat a lot between members and guilds, so we only keep one copy of each */
+private val nameInterner: Interner<String> = Interners.newWeakInterner()
+
+internal fun dedup(string: String): String = nameInterner.intern(string)
+
+/** Long keyed map of entities without boxing the keys. Iterating it returns a snapshot */
+internal class EntityMap<E : Any> : AbstractMap<Long, E>() {
+
+    private val map = Long2ObjectOpenHashMap<E>()
+
+    override val size: Int get() = synchronized(map) { map.size }
+
+    override val entries: Set<Map.Entry<Long, E>>
+        get() = synchronized(map) {
+            map.long2ObjectEntrySet().mapTo(LinkedHashSet(map.size)) {
+                java.util.AbstractMap.SimpleImmutableEntry(it.longKey, it.value)
+            }
+        }
+
+    override fun containsKey(key: Long) = synchronized(map) { map.containsKey(key) }
+    override fun get(key: Long): E? = lookup(key)
+
+    fun lookup(id: Long): E? = synchronized(map) { map.get(id) }
+    fun put(id: Long, entity: E) { synchronized(map) { map.put(id, entity) } }
+    fun remove(id: Long): E? = synchronized(map) { map.remove(id) }
+    fun ids(): LongArray = synchronized(map) {
+        val ids = LongArray(map.size)
+        var i = 0
+        for (entry in map.long2ObjectEntrySet()) ids[i++] = entry.longKey
+        ids
+    }
+}
+
+/**
+ * Column store of the members of a guild. Each member occupies a slot in the column arrays, and holding a role is
+ * tracked by one bitset of slots per role.
+ *
+ * [InternalMember] views are materialized lazily. Views returned by [get] are kept for the lifetime of the slot so
+ * repeated lookups return the same object, while views created for iterating the whole guild are not retained.
+ */
+internal class MemberTable(private val guild: Guild) : AbstractMap<Long, Member>() {
+
+    private val slots = Long2IntOpenHashMap().apply { defaultReturnValue(-1) }
+    private val freeSlots = IntArrayList()
+    private var slotCount = 0
+
+    private var ids = LongArray(INITIAL_CAPACITY)
+    private var names = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var nicknames = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var discrims = arrayOfNulls<String>(INITIAL_CAPACITY)
+    private var roleCounts = IntArray(INITIAL_CAPACITY)
+    private var views = arrayOfNulls<InternalMember>(INITIAL_CAPACITY)
+    private val bots = BitSet()
+
+    /** Role id -> slots of the members holding that role */
+    private val roleMembers = Long2ObjectOpenHashMap<BitSet>()
+    /** Role ids in the order of the guild, used to order the roles of a member */
+    private var roleOrder = LongArray(0)
+
+    companion object {
+        private const val INITIAL_CAPACITY = 16
+    }
+
+    override val size: Int get() = synchronized(this) { slots.size }
+
+    override val entries: Set<Map.Entry<Long, Member>>
+        get() = synchronized(this) {
+            slots.long2IntEntrySet().mapTo(LinkedHashSet(slots.size)) {
+                java.util.AbstractMap.SimpleImmutableEntry<Long, Member>(it.longKey, viewOf(it.intValue, retain = false))
+            }
+        }
+
+    override fun containsKey(key: Long) = synchronized(this) { slots.containsKey(key) }
+    override fun get(key: Long): Member? = lookup(key)
+
+    fun lookup(id: Long): InternalMember? = synchronized(this) {
+        val slot = slots.get(id)
+        if (slot < 0) null else viewOf(slot, retain = true)
+    }
+
+    fun ids(): LongArray = synchronized(this) {
+        val ids = LongArray(slots.size)
+        var i = 0
+        for (entry in slots.long2IntEntrySet()) ids[i++] = entry.longKey
+        ids
+    }
+
+    private fun viewOf(slot: Int, retain: Boolean): InternalMember {
+        views[slot]?.let { return it }
+        val view = InternalMember(guild, ids[slot], bots[slot])
+        if (retain) views[slot] = view
+        return view
+    }
+
+    /* Column reads, null if the member is not (or no longer) part of this guild */
+
+    fun name(id: Long): String? = synchronized(this) { slots.get(id).let { if (it < 0) null else names[it] } }
+    fun nickname(id: Long): String? = synchronized(this) { slots.get(id).let { if (it < 0) null else nicknames[it] } }
+    fun discrim(id: Long): String? = synchronized(this) { slots.get(id).let { if (it < 0) null else discrims[it] } }
+    fun contains(id: Long) = synchronized(this) { slots.containsKey(id) }
+
+    fun hasRole(id: Long, roleId: Long): Boolean = synchronized(this) {
+        val slot = slots.get(id)
+        slot >= 0 && roleMembers.get(roleId)?.get(slot) == true
+    }
+
+    @Synchronized
+    fun roles(id: Long): List<Role> {
+        val slot = slots.get(id)
+        if (slot < 0 || roleCounts[slot] == 0) return emptyList()
+        val roles = ArrayList<Role>(roleCounts[slot])
+        for (roleId in roleOrder) {
+            if (roleMembers.get(roleId)?.get(slot) != true) continue
+            guild.getRole(roleId)?.let { roles.add(it) }
+        }
+        return roles
+    }
+
+    /* Writes */
+
+    /** Adds or updates a member, only touching the columns that changed */
+    @Synchronized
+    fun put(raw: RawMember) =
+            putColumns(raw.id, raw.name, raw.nickname, raw.discrim, raw.bot, raw.roles.size) { raw.roles[it] }
+
+    /** Like [put], for callers which read members field by field, like [GuildReader] */
+    @Synchronized
+    fun put(id: Long, name: String, nickname: String?, discrim: String, bot: Boolean, roleIds: LongList) =
+            putColumns(id, name, nickname, discrim, bot, roleIds.size) { roleIds.getLong(it) }
+
+    private inline fun putColumns(
+            id: Long,
+            name: String,
+            nickname: String?,
+            discrim: String,
+            bot: Boolean,
+            roleCount: Int,
+            roleAt: (Int) -> Long
+    ) {
+        var slot = slots.get(id)
+        if (slot < 0) {
+            slot = allocateSlot()
+            slots.put(id, slot)
+            ids[slot] = id
+            bots[slot] = bot
+        }
+        if (names[slot] != name) names[slot] = dedup(name)
+        if (discrims[slot] != discrim) discrims[slot] = dedup(discrim)
+        if (nicknames[slot] != nickname) nicknames[slot] = nickname?.let { dedup(it) }
+        if (!hasRoles(slot, roleCount, roleAt)) setRoles(slot, roleCount, roleAt)
+    }
+
+    /** @return the removed member, detached from this table, or null if there was no such member */
+    @Synchronized
+    fun remove(id: Long): InternalMember? {
+        val slot = slots.get(id)
+        if (slot < 0) return null
+
+        // Views may still be referenced elsewhere, so they keep a copy of the last known state
+        val view = viewOf(slot, retain = false)
+        view.detach(names[slot]!!, nicknames[slot], discrims[slot]!!, roles(id))
+
+        setRoles(slot, 0) { 0L }
+        slots.remove(id)
+        names[slot] = null
+        nicknames[slot] = null
+        discrims[slot] = null
+        views[slot] = null
+        bots.clear(slot)
+        freeSlots.add(slot)
+        return view
+    }
+
+    /**
+     * Sets the roles of the guild, and drops roles no longer part of it from all members.
+     * Members may be put before the roles are known, but the roles need to be updated before reading them.
+     */
+    @Synchronized
+    fun updateRoles(roles: List<RawRole>) {
+        roleOrder = LongArray(roles.size) { roles[it].id }
+        if (roleMembers.size > roles.size || roles.any { !roleMembers.containsKey(it.id) }) {
+            val present = LongOpenHashSet(roleOrder)
+            val removed = roleMembers.long2ObjectEntrySet().map { it.longKey }.filter { !present.contains(it) }
+            removed.forEach { roleId ->
+                roleMembers.remove(roleId)?.stream()?.forEach { roleCounts[it]-- }
+            }
+            roleOrder.forEach { if (!roleMembers.containsKey(it)) roleMembers.put(it, BitSet()) }
+        }
+    }
+
+    private inline fun hasRoles(slot: Int, roleCount: Int, roleAt: (Int) -> Long): Boolean {
+        if (roleCounts[slot] != roleCount) return false
+        for (i in 0 until roleCount) {
+            if (roleMembers.get(roleAt(i))?.get(slot) != true) return false
+        }
+        return true
+    }
+
+    private inline fun setRoles(slot: Int, roleCount: Int, roleAt: (Int) -> Long) {
+        if (roleCounts[slot] > 0) roleMembers.values.forEach { it.clear(slot) }
+        var count = 0
+        for (i in 0 until roleCount) {
+            // Roles we don't know of yet are dropped again by the next call to updateRoles
+            val roleId = roleAt(i)
+            val members = roleMembers.get(roleId) ?: BitSet().also { roleMembers.put(roleId, it) }
+            if (!members[slot]) count++
+            members.set(slot)
+        }
+        roleCounts[slot] = count
+    }
+
+    private fun allocateSlot(): Int {
+        if (!freeSlots.isEmpty()) return freeSlots.removeInt(freeSlots.size - 1)
+        if (slotCount == ids.size) {
+            val capacity = ids.size * 2
+            ids = ids.copyOf(capacity)
+            names = names.copyOf(capacity)
+            nicknames = nicknames.copyOf(capacity)
+            discrims = discrims.copyOf(capacity)
+            roleCounts = roleCounts.copyOf(capacity)
+            views = views.copyOf(capacity)
+        }
+        return slotCount++
+    }
+}
@@ -5,13 +5,17 @@ import com.fredboat.sentinel.entities.GuildSubscribeRequest
 import com.google.common.cache.CacheBuilder
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.config.property.AppConfig
+import fredboat.db.rest.GuildSettingsPrefetcher
+import fredboat.util.TimingWheel
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.reactive.awaitFirstOrNull
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import org.springframework.amqp.core.AmqpReplyTimeoutException
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
+import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
@@ -20,8 +24,10 @@ import java.util.concurrent.TimeoutException
 
 @Service
 class GuildCache(private val sentinel: Sentinel,
+                 private val guildReader: GuildReader,
                  private val appConfig: AppConfig,
-                 private val lavalink: SentinelLavalink) {
+                 private val lavalink: SentinelLavalink,
+                 private val settingsPrefetcher: GuildSettingsPrefetcher) {
 
     init {
         @Suppress("LeakingThis")
@@ -31,6 +37,13 @@ class GuildCache(private val sentinel: Sentinel,
     companion object {
         lateinit var INSTANCE: GuildCache
         private val log: Logger = LoggerFactory.getLogger(GuildCache::class.java)
+        /** Max guilds per [GuildSubscribeBatchRequest] */
+        const val SUBSCRIBE_BATCH_SIZE = 50
+        /** Max batches in flight per [getAll] call */
+        const val SUBSCRIBE_CONCURRENCY = 4
+        /** Time after which an unused guild may be invalidated, see [InternalGuild.lastUsed] */
+        const val IDLE_TIMEOUT_MILLIS: Long = 10 * 60 * 1000 // 10 minutes
+        private const val IDLE_TICK_MILLIS: Long = 10 * 1000
     }
 
     @Autowired
@@ -43,6 +56,13 @@ class GuildCache(private val sentinel: Sentinel,
             .expireAfterWrite(1, TimeUnit.MINUTES) // Just as a precaution
             .build<Long, Mono<Guild?>>()!!
 
+    /** Turned off for good once a Sentinel leaves a [GuildSubscribeBatchRequest] unanswered */
+    @Volatile
+    private var batchesSupported = appConfig.useBatchSubscribe()
+
+    /** Ids of the cached guilds by the time they would become idle, unless used in the meantime */
+    private val idleWheel = TimingWheel(IDLE_TICK_MILLIS, (2 * IDLE_TIMEOUT_MILLIS / IDLE_TICK_MILLIS).toInt())
+
     /**
      * @param id the ID of the guild
      * @param textChannelInvoked optionally the ID of the text channel used,
@@ -63,11 +83,10 @@ class GuildCache(private val sentinel: Sentinel,
 
         val startTime = System.currentTimeMillis()
 
-        val mono = sentinel.genericMonoSendAndReceive<RawGuild?, Guild?>(
+        val mono = sentinel.rawMonoSendAndReceive<Guild?>(
                 SentinelExchanges.REQUESTS,
                 sentinel.tracker.getKey(calculateShardId(id)),
                 GuildSubscribeRequest(id, channelInvoked = textChannelInvoked),
-                mayBeEmpty = true,
                 transform = {
                     transform(startTime, it)
                 })
@@ -79,12 +98,101 @@ class GuildCache(private val sentinel: Sentinel,
         return mono
     }
 
-    private fun transform(startTime: Long, it: RawGuild?): InternalGuild? {
-        if (it == null) return null
+    /**
+     * Subscribes to many guilds at once. If batch subscriptions are enabled, the guilds are grouped by the Sentinel
+     * serving them and requested in batches of [SUBSCRIBE_BATCH_SIZE], with up to [SUBSCRIBE_CONCURRENCY] batches in
+     * flight. Otherwise, or once a Sentinel turned out to not support them, each guild is requested on its own.
+     *
+     * @param ids the IDs of the guilds
+     * @param skipCache if we should skip the cache and potentially resubscribe
+     * @return the guilds in the order they arrive. Guilds that could not be fetched are left out
+     */
+    fun getAll(ids: Collection<Long>, skipCache: Boolean = false): Flux<Guild> {
+        val distinct = ids.distinct()
+        val cached = if (skipCache) emptyList() else distinct.mapNotNull { cache[it] }
+        // Guilds of which a subscription is already underway
+        val pending = if (skipCache) emptyList() else distinct.mapNotNull { requestCache.getIfPresent(it) }
+        val cachedIds = cached.mapTo(HashSet()) { it.id }
+        val missing = if (skipCache) distinct else distinct.filter {
+            it !in cachedIds && requestCache.getIfPresent(it) == null
+        }
+
+        val subscriptions = if (batchesSupported) {
+            val batches = missing.groupBy { sentinel.tracker.getKey(calculateShardId(it)) }
+                    .flatMap { (routingKey, guildIds) ->
+                        guildIds.chunked(SUBSCRIBE_BATCH_SIZE).map { routingKey to it }
+                    }
+            Flux.fromIterable(batches).flatMap({ (routingKey, batch) -> subscribeBatch(routingKey, batch) },
+                    SUBSCRIBE_CONCURRENCY)
+        } else {
+            subscribeEach(missing)
+        }
+
+        return Flux.merge(
+                Flux.fromIterable<Guild>(cached),
+                Flux.merge(pending.map { mono -> mono.onErrorResume { Mono.empty() } }).map { it!! },
+                subscriptions
+        )
+    }
+
+    private fun subscribeEach(ids: List<Long>): Flux<Guild> = Flux.fromIterable(ids).flatMap { id ->
+        get(id, skipCache = true).map { it!! }.onErrorResume { Mono.empty() }
+    }
+
+    private fun subscribeBatch(routingKey: String, ids: List<Long>): Flux<Guild> {
+        // An earlier batch may have found batches to be unsupported while this one was waiting for its turn
+        if (!batchesSupported) return subscribeEach(ids)
+
+        val startTime = System.currentTimeMillis()
+        val batch = sentinel.rawMonoSendAndReceive<List<InternalGuild>>(
+                SentinelExchanges.REQUESTS,
+                routingKey,
+                GuildSubscribeBatchRequest(ids),
+                transform = { body ->
+                    val timeTakenReceive = System.currentTimeMillis() - startTime
+                    guildReader.readAll(body).map { onSubscribed(startTime, timeTakenReceive, it) }
+                })
+                .timeout(Duration.ofSeconds(60),
+                        Mono.error(TimeoutException("Timed out while subscribing to ${ids.size} guilds")))
+                .cache()
+
+        // Let concurrent calls to get() wait for the batch instead of subscribing again
+        val requests = ids.associateWith { id ->
+            batch.flatMap<Guild?> { guilds -> Mono.justOrEmpty(guilds.firstOrNull { it.id == id }) }
+        }
+        requests.forEach { id, mono -> requestCache.put(id, mono) }
+
+        return batch
+                .doFinally { requests.forEach { id, mono -> requestCache.asMap().remove(id, mono) } }
+                .flatMapIterable<Guild> { it }
+                .onErrorResume { e ->
+                    // Sentinels that don't know the request don't reply at all
+                    if (e is TimeoutException || e.cause is AmqpReplyTimeoutException) {
+                        if (batchesSupported) {
+                            batchesSupported = false
+                            log.warn("No reply to a batch subscription from {}, subscribing to guilds one by one " +
+                                    "from now on", routingKey)
+                        }
+                    } else {
+                        log.warn("Failed to subscribe to a batch of {} guilds, subscribing one by one", ids.size, e)
+                    }
+                    subscribeEach(ids)
+                }
+    }
 
+    private fun transform(startTime: Long, body: ByteArray): InternalGuild? {
         val timeTakenReceive = System.currentTimeMillis() - startTime
-        val g = InternalGuild(it)
+        val result = guildReader.read(body) ?: return null
+        return onSubscribed(startTime, timeTakenReceive, result)
+    }
+
+    private fun onSubscribed(startTime: Long, timeTakenReceive: Long, result: GuildReader.Result): InternalGuild {
+        val g = result.guild
+        g.onLoaded()
         cache[g.id] = g
+        idleWheel.schedule(g.id, g.lastUsed + IDLE_TIMEOUT_MILLIS)
+        // Commands in the guild are likely to follow
+        settingsPrefetcher.prefetch(g.id)
         val timeTakenParse = System.currentTimeMillis() - startTime - timeTakenReceive
         val timeTaken = timeTakenReceive + timeTakenParse
 
@@ -98,7 +206,7 @@ class GuildCache(private val sentinel: Sentinel,
         )
 
         // Asynchronously handle existing VSU from an older FredBoat session, if it exists
-        it.voiceServerUpdate?.let { vsu ->
+        result.voiceServerUpdate?.let { vsu ->
             GlobalScope.launch {
                 val channelId = g.selfMember.voiceChannel?.idString
 
@@ -126,6 +234,28 @@ class GuildCache(private val sentinel: Sentinel,
 
     fun getIfCached(id: Long): Guild? = cache[id]
 
+    /**
+     * Only looks at the guilds that were due to become idle since the last call. Guilds that have been used in the
+     * meantime are rescheduled.
+     *
+     * @return cached guilds that have not been used for [IDLE_TIMEOUT_MILLIS]
+     */
+    fun pollIdle(now: Long = System.currentTimeMillis()): List<InternalGuild> {
+        val due = idleWheel.advance(now)
+        val idle = mutableListOf<InternalGuild>()
+        for (i in 0 until due.size) {
+            val guild = cache[due.getLong(i)] ?: continue
+            val deadline = guild.lastUsed + IDLE_TIMEOUT_MILLIS
+            if (deadline > now) idleWheel.schedule(guild.id, deadline) else idle.add(guild)
+        }
+        return idle
+    }
+
+    /** Keeps an idle guild cached for another [IDLE_TIMEOUT_MILLIS], if it is still needed */
+    fun postponeIdle(guild: Guild, now: Long = System.currentTimeMillis()) {
+        idleWheel.schedule(guild.id, now + IDLE_TIMEOUT_MILLIS)
+    }
+
     private fun calculateShardId(guildId: Long): Int = ((guildId shr 22) % appConfig.shardCount.toLong()).toInt()
 
 }
@@ -0,0 +1,19 @@
+package fredboat.sentinel
+
+import fredboat.util.HyperLogLog
+
+/*
+ * Requests to the Sentinels that are not part of the shared Sentinel entities yet
+ */
+
+/**
+ * Subscribes to several guilds of one Sentinel at once, see [GuildCache.getAll].
+ * Answered with an array of the guilds, which leaves out the guilds that are not available.
+ */
+data class GuildSubscribeBatchRequest(val ids: List<Long>)
+
+/** Requests a [HyperLogLog] sketch of the IDs of the users of a Sentinel. Answered with a [UserSketchResponse] */
+data class UserSketchRequest(val precision: Int)
+
+/** The registers of a [HyperLogLog] sketch */
+class UserSketchResponse(val precision: Int, val registers: ByteArray)
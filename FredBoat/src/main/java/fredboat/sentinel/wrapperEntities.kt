@@ -1,6 +1,7 @@
 package fredboat.sentinel
 
 import com.fredboat.sentinel.entities.*
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.audio.lavalink.SentinelLink
 import fredboat.audio.player.GuildPlayer
@@ -17,7 +18,6 @@ import org.springframework.amqp.AmqpRejectAndDontRequeueException
 import org.springframework.stereotype.Service
 import reactor.core.publisher.Mono
 import reactor.core.publisher.toMono
-import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
 import java.util.stream.Stream
@@ -48,9 +48,9 @@ private lateinit var lavalink: SentinelLavalink
 private lateinit var playerRegistry: PlayerRegistry
 
 @Suppress("PropertyName")
-abstract class Guild(raw: RawGuild) : SentinelEntity {
+abstract class Guild(override val id: Long) : SentinelEntity {
 
-    override val id = raw.id
+    constructor(raw: RawGuild) : this(raw.id)
 
     protected lateinit var _name: String
     val name: String get() = _name
@@ -58,18 +58,22 @@ abstract class Guild(raw: RawGuild) : SentinelEntity {
     protected var _owner: Member? = null // Discord has a history of null owners
     val owner: Member? get() = _owner
 
-    protected var _members = ConcurrentHashMap<Long, InternalMember>()
+    @Suppress("LeakingThis")
+    internal val _members = MemberTable(this)
     val members: Map<Long, Member> get() = _members
 
-    protected var _roles = ConcurrentHashMap<Long, Role>()
+    internal val _roles = EntityMap<Role>()
     val roles: Map<Long, Role> get() = _roles
 
-    protected var _textChannels = ConcurrentHashMap<Long, TextChannel>()
+    internal val _textChannels = EntityMap<TextChannel>()
     val textChannels: Map<Long, TextChannel> get() = _textChannels
 
-    protected var _voiceChannels = ConcurrentHashMap<Long, VoiceChannel>()
+    internal val _voiceChannels = EntityMap<VoiceChannel>()
     val voiceChannels: Map<Long, VoiceChannel> get() = _voiceChannels
 
+    /** Member id -> id of the voice channel that member is connected to */
+    protected var _voiceStates = ConcurrentHashMap<Long, Long>()
+
     protected var _stale = false
     /** This is true if we are present in this [Guild]*/
     val selfPresent: Boolean
@@ -78,7 +82,7 @@ abstract class Guild(raw: RawGuild) : SentinelEntity {
     /* Helper properties */
 
     val selfMember: Member
-        get() = _members[sentinel.selfUser.id] ?: throw AmqpRejectAndDontRequeueException("Unable to find self in guild")
+        get() = _members.lookup(sentinel.selfUser.id) ?: throw AmqpRejectAndDontRequeueException("Unable to find self in guild")
     val shardId: Int
         get() = ((id shr 22) % appConfig.shardCount.toLong()).toInt()
     val shardString: String
@@ -97,60 +101,152 @@ abstract class Guild(raw: RawGuild) : SentinelEntity {
     val guildPlayer: GuildPlayer? get() =  playerRegistry.getExisting(this)
     fun getOrCreateGuildPlayer() = playerRegistry.getOrCreate(this)
 
-    fun getMember(id: Long): Member? = _members[id]
-    fun getRole(id: Long): Role? = _roles[id]
-    fun getTextChannel(id: Long): TextChannel? = _textChannels[id]
-    fun getVoiceChannel(id: Long): VoiceChannel? = _voiceChannels[id]
-    fun isMember(user: User) = members.containsKey(user.id)
+    fun getMember(id: Long): Member? = _members.lookup(id)
+    fun getRole(id: Long): Role? = _roles.lookup(id)
+    fun getTextChannel(id: Long): TextChannel? = _textChannels.lookup(id)
+    fun getVoiceChannel(id: Long): VoiceChannel? = _voiceChannels.lookup(id)
+    fun getVoiceChannelOf(memberId: Long): VoiceChannel? = _voiceStates[memberId]?.let { _voiceChannels.lookup(it) }
+    fun isMember(user: User) = _members.contains(user.id)
     override fun equals(other: Any?): Boolean = other is Guild && id == other.id
     override fun hashCode() = id.hashCode()
     override fun toString() = "[G:$name:$id]"
 }
 
 /** Has public members we want to hide */
-class InternalGuild(raw: RawGuild) : Guild(raw) {
+class InternalGuild internal constructor(id: Long) : Guild(id) {
 
-    init {
+    constructor(raw: RawGuild) : this(raw.id) {
         update(raw)
-        // Any old GuildPlayer needs to be aware of the new guild object
-        val player: GuildPlayer? = getBotController().playerRegistry.getExisting(this)
-        if (player != null) player.guild = this
+        onLoaded()
     }
 
-
     /** Last time we really needed this [Guild].
      *  If this value becomes too old, the [Guild] may be invalidated.
      *  Refreshed on command invocation
      */
     var lastUsed: Long = System.currentTimeMillis()
 
+    /** To be called once a new guild object is fully populated */
+    internal fun onLoaded() {
+        // Any old GuildPlayer needs to be aware of the new guild object
+        val player: GuildPlayer? = getBotController().playerRegistry.getExisting(this)
+        if (player != null) player.guild = this
+    }
+
+    /**
+     * Applies the raw guild onto the cached entities. Existing entities are updated in place and only entities that
+     * were added or removed are created or dropped, so an update of a large guild that barely changed stays cheap.
+     */
     fun update(raw: RawGuild) {
         if (id != raw.id) throw AmqpRejectAndDontRequeueException("Attempt to update $id with the data of ${raw.id}")
 
-        _name = raw.name
-
         // Note: Roles must be loaded first as members rely on them. Then members, then channels
-        _roles = raw.roles.map { InternalRole(this, it) }.associateByTo(ConcurrentHashMap()) { it.id }
-        _members = raw.members.map { InternalMember(this, it) }.associateByTo(ConcurrentHashMap()) { it.id }
-        _textChannels = raw.textChannels.map { InternalTextChannel(this, it) }.associateByTo(ConcurrentHashMap()) { it.id }
-        _voiceChannels = raw.voiceChannels.map { InternalVoiceChannel(this, it) }.associateByTo(ConcurrentHashMap()) { it.id }
+        updateRoles(raw.roles)
+        raw.members.forEach { _members.put(it) }
+        if (_members.size > raw.members.size) {
+            val present = LongOpenHashSet(raw.members.size)
+            raw.members.forEach { present.add(it.id) }
+            _members.ids().forEach { if (!present.contains(it)) handleMemberRemove(it) }
+        }
+        updateGuild(raw.name, raw.owner, raw.textChannels, raw.voiceChannels)
+    }
+
+    /** Members are put by the caller, see [GuildReader] */
+    internal fun updateRoles(roles: List<RawRole>) {
+        _roles.applyDiff(roles, { it.id }, { (this as InternalRole).update(it) }, { InternalRole(this, it) })
+        _members.updateRoles(roles)
+    }
 
-        val rawOwner = raw.owner
-        _owner = if (rawOwner != null) members[rawOwner] else null
+    /** Needs to be called after the members are up to date */
+    internal fun updateGuild(
+            name: String,
+            owner: Long?,
+            textChannels: List<RawTextChannel>,
+            voiceChannels: List<RawVoiceChannel>
+    ) {
+        _name = name
+        _textChannels.applyDiff(textChannels, { it.id }, { (this as InternalTextChannel).update(it) },
+                { InternalTextChannel(this, it) })
+        _voiceChannels.applyDiff(voiceChannels, { it.id }, { (this as InternalVoiceChannel).update(it) },
+                { InternalVoiceChannel(this, it) }, onRemove = { channelId ->
+            _voiceStates.values.removeIf { it == channelId }
+        })
+        voiceChannels.forEach { updateVoiceMembers(_voiceChannels.lookup(it.id) as InternalVoiceChannel, it.members) }
+
+        _owner = if (owner != null) _members.lookup(owner) else null
+    }
+
+    /**
+     * Updates the entities of this map that are present in [raws], creates the missing ones and removes the ones that
+     * are no longer present.
+     */
+    private inline fun <E : Any, R> EntityMap<E>.applyDiff(
+            raws: List<R>,
+            rawId: (R) -> Long,
+            updateEntity: E.(R) -> Unit,
+            create: (R) -> E,
+            onRemove: (Long) -> Unit = {}
+    ) {
+        for (r in raws) {
+            val existing = lookup(rawId(r))
+            if (existing != null) existing.updateEntity(r) else put(rawId(r), create(r))
+        }
+
+        // Every raw entity is in the map now, so anything beyond that count is stale
+        if (size <= raws.size) return
+        val present = LongOpenHashSet(raws.size)
+        raws.forEach { present.add(rawId(it)) }
+        ids().forEach {
+            if (present.contains(it)) return@forEach
+            remove(it)
+            onRemove(it)
+        }
     }
 
     fun handleMemberAdd(member: RawMember) {
-        _members[member.id] = InternalMember(this, member)
+        _members.put(member)
+    }
+
+    fun handleMemberUpdate(member: RawMember) {
+        if (_members.contains(member.id)) _members.put(member)
     }
 
     fun handleMemberRemove(id: Long) {
         _members.remove(id)
+        handleVoiceLeave(id)
     }
 
-    fun removeMemberFromAllVoiceChannels(memberId: Long) {
-        _voiceChannels.forEach {
-            (it.value as InternalVoiceChannel).removeMember(memberId)
+    /** Also handles moves */
+    fun handleVoiceJoin(channel: InternalVoiceChannel, member: Member) {
+        val previous = _voiceStates.put(member.id, channel.id)
+        if (previous != null && previous != channel.id) {
+            (_voiceChannels.lookup(previous) as? InternalVoiceChannel)?.removeMember(member.id)
         }
+        channel.addMember(member)
+    }
+
+    fun handleVoiceLeave(memberId: Long) {
+        val previous = _voiceStates.remove(memberId) ?: return
+        (_voiceChannels.lookup(previous) as? InternalVoiceChannel)?.removeMember(memberId)
+    }
+
+    fun handleVoiceChannelUpdate(raw: RawVoiceChannel) {
+        val channel = _voiceChannels.lookup(raw.id) as? InternalVoiceChannel ?: return
+        channel.update(raw)
+        updateVoiceMembers(channel, raw.members)
+    }
+
+    private fun updateVoiceMembers(channel: InternalVoiceChannel, memberIds: List<Long>) {
+        // Usually nobody joined or left without us getting an event for it
+        if (channel.memberCount == memberIds.size && memberIds.all { channel.containsMember(it) }) return
+
+        val newMembers = memberIds.toHashSet()
+        channel.members.forEach {
+            if (it.id in newMembers) return@forEach
+            channel.removeMember(it.id)
+            _voiceStates.remove(it.id, channel.id)
+        }
+        newMembers.forEach { memberId -> getMember(memberId)?.let { handleVoiceJoin(channel, it) } }
     }
 
     fun onSelfLeaving() {
@@ -177,43 +273,38 @@ class InternalGuild(raw: RawGuild) : Guild(raw) {
 
 }
 
-@Suppress("PropertyName")
-abstract class Member(val guild: Guild, raw: RawMember) : IMentionable, SentinelEntity {
-    override val id = raw.id
-    val isBot = raw.bot
+abstract class Member(val guild: Guild, override val id: Long, val isBot: Boolean) : IMentionable, SentinelEntity {
 
-    protected lateinit var _name: String
-    val name: String get() = _name
-
-    protected lateinit var _discrim: String
-    val discrim: String get() = _discrim
+    constructor(guild: Guild, raw: RawMember) : this(guild, raw.id, raw.bot)
 
-    protected var _nickname: String? = null
-    val nickname: String? get() = _nickname
+    abstract val name: String
+    abstract val discrim: String
+    abstract val nickname: String?
+    abstract val roles: List<Role>
 
-    val voiceChannel: VoiceChannel? get() = guild.voiceChannels.values.find { it.members.contains(this) }
-
-    protected var _roles = mutableListOf<Role>()
-    val roles: List<Role> get() = _roles // Cast to immutable
+    val voiceChannel: VoiceChannel? get() = guild.getVoiceChannelOf(id)
 
     /* Convenience properties */
-    val effectiveName: String get() = if (_nickname != null) _nickname!! else _name
+    val effectiveName: String get() = nickname ?: name
     /** True if this [Member] is our bot */
     val isUs: Boolean get() = id == sentinel.selfUser.id
     override val asMention: String get() = "<@$id>"
+    @Volatile
+    private var cachedUser: User? = null
     val user: User
-        get() = User(RawUser(
-                id,
-                name,
-                discrim,
-                isBot
-        ))
+        get() {
+            val cached = cachedUser
+            if (cached != null && cached.name == name && cached.discrim == discrim) return cached
+            return User(RawUser(id, name, discrim, isBot)).also { cachedUser = it }
+        }
     val info: Mono<MemberInfo> get() = sentinel.getMemberInfo(this)
     val raw: RawMember get() =
         RawMember(id, name, nickname ?: "", discrim, guild.id, isBot, roles.map { id }, voiceChannel?.id)
 
     fun isOwner() = this == guild.owner
 
+    open fun hasRole(role: Role) = roles.contains(role)
+
     fun getPermissions(channel: Channel? = null): Mono<PermissionSet> {
         if (isOwner()) return PermissionSet(-1).toMono() // Owner perms are implied. -1 is all ones in two's compliement
         return when (channel) {
@@ -240,24 +331,33 @@ abstract class Member(val guild: Guild, raw: RawMember) : IMentionable, Sentinel
 
 }
 
-class InternalMember(guild: Guild, raw: RawMember) : Member(guild, raw) {
+/** A view onto the [MemberTable] of its guild, see [Guild.members] */
+class InternalMember internal constructor(guild: Guild, id: Long, isBot: Boolean) : Member(guild, id, isBot) {
 
-    init {
-        update(raw)
-    }
+    /** The last known state, set once this member is removed from its guild */
+    @Volatile
+    private var detached: Detached? = null
+
+    private class Detached(val name: String, val nickname: String?, val discrim: String, val roles: List<Role>)
+
+    private val table: MemberTable get() = guild._members
+
+    override val name: String get() = table.name(id) ?: detached!!.name
+    override val discrim: String get() = table.discrim(id) ?: detached!!.discrim
+    override val nickname: String?
+        get() = if (table.contains(id)) table.nickname(id) else detached!!.nickname
+    override val roles: List<Role>
+        get() = if (table.contains(id)) table.roles(id) else detached!!.roles
+
+    override fun hasRole(role: Role) = if (table.contains(id)) table.hasRole(id, role.id) else role in detached!!.roles
 
     fun update(raw: RawMember) {
         if (id != raw.id) throw AmqpRejectAndDontRequeueException("Attempt to update $id with the data of ${raw.id}")
+        (guild as InternalGuild).handleMemberUpdate(raw)
+    }
 
-        val newRoleList = mutableListOf<Role>()
-        raw.roles.flatMapTo(newRoleList) {
-            val role = guild.getRole(it)
-            return@flatMapTo if (role != null) listOf(role) else emptyList()
-        }
-        _roles = newRoleList
-        _name = raw.name
-        _discrim = raw.discrim
-        _nickname = raw.nickname
+    internal fun detach(name: String, nickname: String?, discrim: String, roles: List<Role>) {
+        detached = Detached(name, nickname, discrim, roles)
     }
 }
 
@@ -342,8 +442,21 @@ abstract class VoiceChannel(override val guild: Guild, raw: RawVoiceChannel) : C
     protected var _userLimit = 0
     val userLimit: Int get() = _userLimit
 
-    protected lateinit var _members: MutableList<Member>
-    val members: List<Member> get() = _members
+    protected val _members = ConcurrentHashMap<Long, Member>()
+    val members: List<Member> get() = _members.values.toList()
+
+    @Volatile
+    protected var _humanCount = 0
+    /** Amount of connected members that are not bots */
+    val humanCount: Int get() = _humanCount
+
+    @Volatile
+    protected var _botCount = 0
+    val botCount: Int get() = _botCount
+
+    val memberCount: Int get() = _members.size
+
+    fun containsMember(memberId: Long) = _members.containsKey(memberId)
 
     fun connect() = SentinelLavalink.INSTANCE.getLink(guild).connect(this)
     override fun equals(other: Any?) = other is VoiceChannel && id == other.id
@@ -363,19 +476,19 @@ class InternalVoiceChannel(override val guild: Guild, raw: RawVoiceChannel) : Vo
         _name = raw.name
         _ourEffectivePermissions = raw.ourEffectivePermissions
         _userLimit = raw.userLimit
-        _members = raw.members.flatMapTo(Collections.synchronizedList(mutableListOf())) { id ->
-            listOfNotNull(guild.getMember(id))
-        }
     }
 
-    /** Also handles moves */
-    fun handleVoiceJoin(member: Member) {
-        (guild as InternalGuild).removeMemberFromAllVoiceChannels(member.id) // For good measure
-        _members.add(member)
+    /* Members are tracked by the InternalGuild, which also keeps its voice state index in sync.
+     * Updates of a guild are ordered by the GuildEventDispatcher, so the counters only have a single writer */
+
+    internal fun addMember(member: Member) {
+        if (_members.put(member.id, member) != null) return
+        if (member.isBot) _botCount++ else _humanCount++
     }
 
-    fun removeMember(memberId: Long) {
-        _members.removeIf { it.id == memberId }
+    internal fun removeMember(memberId: Long) {
+        val removed = _members.remove(memberId) ?: return
+        if (removed.isBot) _botCount-- else _humanCount--
     }
 
     fun updatePerms(perms: Long) { _ourEffectivePermissions = perms }
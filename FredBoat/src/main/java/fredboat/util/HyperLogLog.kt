@@ -0,0 +1,72 @@
+package fredboat.util
+
+import it.unimi.dsi.fastutil.HashCommon
+
+/**
+ * HyperLogLog sketch for estimating the number of distinct longs, as described by Flajolet et al. The standard error
+ * of the estimate is about 1.04 / sqrt(2^[precision]).
+ *
+ * Sketches of the same precision can be merged, which is how the user counts of the Sentinels are combined. Sketches
+ * built elsewhere, like the ones the Sentinels answer a [fredboat.sentinel.UserSketchRequest] with, are only mergeable
+ * if they use the same hash and register layout:
+ * - values are hashed with fastutil's [HashCommon.murmurHash3] of the long, the 64 bit finalizer of MurmurHash3;
+ * - the highest [precision] bits of the hash are the index of the register;
+ * - the register holds the maximum rank seen, which is the number of leading zeros of the remaining bits plus one;
+ * - [registers] holds one byte per register, in the order of their indices.
+ */
+class HyperLogLog(val precision: Int, val registers: ByteArray = ByteArray(1 shl precision)) {
+
+    companion object {
+        const val MIN_PRECISION = 4
+        const val MAX_PRECISION = 18
+
+        /** @return the lowest precision with a standard error of at most [error] */
+        fun precisionFor(error: Double): Int {
+            val registers = Math.pow(1.04 / error, 2.0)
+            val precision = Math.ceil(Math.log(registers) / Math.log(2.0)).toInt()
+            return precision.coerceIn(MIN_PRECISION, MAX_PRECISION)
+        }
+    }
+
+    init {
+        require(precision in MIN_PRECISION..MAX_PRECISION) { "Precision $precision is out of range" }
+        require(registers.size == 1 shl precision) { "Expected ${1 shl precision} registers, got ${registers.size}" }
+    }
+
+    fun add(value: Long) {
+        val hash = HashCommon.murmurHash3(value)
+        val index = (hash ushr (64 - precision)).toInt()
+        // Position of the first set bit of the remaining bits
+        val rank = Math.min(java.lang.Long.numberOfLeadingZeros(hash shl precision) + 1, 64 - precision + 1)
+        if (rank > registers[index]) registers[index] = rank.toByte()
+    }
+
+    fun merge(other: HyperLogLog) {
+        require(other.precision == precision) { "Can't merge precision ${other.precision} into $precision" }
+        for (i in registers.indices) {
+            if (other.registers[i] > registers[i]) registers[i] = other.registers[i]
+        }
+    }
+
+    fun estimate(): Long {
+        val m = registers.size.toDouble()
+        var sum = 0.0
+        var zeros = 0
+        for (register in registers) {
+            sum += 1.0 / (1L shl register.toInt())
+            if (register.toInt() == 0) zeros++
+        }
+
+        val alpha = when (registers.size) {
+            16 -> 0.673
+            32 -> 0.697
+            64 -> 0.709
+            else -> 0.7213 / (1 + 1.079 / m)
+        }
+        val estimate = alpha * m * m / sum
+
+        // Linear counting is more accurate for small cardinalities. The 64 bit hash needs no large range correction
+        if (estimate <= 2.5 * m && zeros > 0) return Math.round(m * Math.log(m / zeros))
+        return Math.round(estimate)
+    }
+}
@@ -4,13 +4,16 @@ import com.fredboat.sentinel.entities.ExtendedShardInfo
 import fredboat.config.property.AppConfig
 import fredboat.sentinel.Sentinel
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.amqp.core.AmqpReplyTimeoutException
 import org.springframework.stereotype.Service
 import reactor.core.publisher.Mono
 import reactor.core.publisher.toMono
 import reactor.util.function.Tuple2
 
 @Service
-class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConfig) {
+class SentinelCountingService(private val sentinel: Sentinel, private val appConfig: AppConfig) {
 
     /** Rough average users per shard + 5000 (for good measure) all timed the max number of shards */
     private val estimatedUsers = (30000 + 5000) * appConfig.shardCount
@@ -19,10 +22,14 @@ class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConf
     private var cachedUserCount = 0
     private var countsCacheTime = 0L
     private var userCountCacheTime = 0L
+    /** Turned off for good once the Sentinels leave a user sketch request unanswered */
+    @Volatile
+    private var sketchesSupported = true
 
     companion object {
         private const val COUNTS_TIMEOUT = 60000 // 1 minute
         private const val USERS_TIMEOUT = 10 * 60000 // 10 minutes
+        private val log: Logger = LoggerFactory.getLogger(SentinelCountingService::class.java)
     }
 
     fun getCounts(): Mono<Counts> {
@@ -58,22 +65,50 @@ class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConf
 
     /**
      * The day that we reach 2,147,483,647 users will be a glorious one
+     *
+     * Estimated from the [HyperLogLog] sketches of the Sentinels, unless configured to count exactly.
+     * Falls back to counting exactly if the sketches can't be fetched.
      */
     fun getUniqueUserCount(): Mono<Int> {
         if(userCountCacheTime + USERS_TIMEOUT > System.currentTimeMillis()) return cachedUserCount.toMono()
 
-        return Mono.create { sink ->
-            val set = LongOpenHashSet(estimatedUsers)
-            sentinel.getFullSentinelUserList()
-                    .doOnComplete {
-                        val sum = set.size
-                        cachedUserCount = sum
-                        sink.success(sum)
-                    }.doOnError { sink.error(it) }
-                    .subscribe { set.add(it) }
+        val error = appConfig.userCountError
+        val count = if (error <= 0 || !sketchesSupported) {
+            countUniqueUsersExactly()
+        } else {
+            estimateUniqueUsers(HyperLogLog.precisionFor(error)).onErrorResume { e ->
+                if (isUnanswered(e)) {
+                    sketchesSupported = false
+                    log.warn("Sentinels don't answer user sketch requests, counting users exactly from now on")
+                } else {
+                    log.warn("Failed to estimate the unique user count, counting exactly instead", e)
+                }
+                countUniqueUsersExactly()
+            }
+        }
+
+        return count.doOnSuccess {
+            cachedUserCount = it
+            userCountCacheTime = System.currentTimeMillis()
         }
     }
 
+    /** Sentinels that don't know the request don't reply at all. Errors of several Sentinels are combined */
+    private fun isUnanswered(e: Throwable) = (listOf(e) + e.suppressed).any { it.cause is AmqpReplyTimeoutException }
+
+    internal fun estimateUniqueUsers(precision: Int): Mono<Int> = sentinel.getSentinelUserSketches(precision)
+            .reduce { merged, sketch -> merged.apply { merge(sketch) } }
+            .map { it.estimate().toInt() }
+            .defaultIfEmpty(0)
+
+    internal fun countUniqueUsersExactly(): Mono<Int> = Mono.create { sink ->
+        val set = LongOpenHashSet(estimatedUsers)
+        sentinel.getFullSentinelUserList()
+                .doOnComplete { sink.success(set.size) }
+                .doOnError { sink.error(it) }
+                .subscribe { set.add(it) }
+    }
+
     fun getAllCounts(): Mono<Tuple2<Counts, Int>> = Mono.zip(getCounts(), getUniqueUserCount())
 
     fun getAllCountsCached() = cachedCounts to cachedUserCount
@@ -0,0 +1,51 @@
+package fredboat.util
+
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+
+/**
+ * Hashed timing wheel of ids. Each id is put into the slot of the tick its deadline falls into, and advancing the
+ * wheel only visits the slots of the ticks that passed, so the cost of advancing depends on the number of due ids
+ * rather than on the number of scheduled ids.
+ *
+ * Deadlines further away than one rotation of the wheel are returned one or more rotations early, and ids are never
+ * removed when their deadline changes. Callers are expected to check the actual deadline of the ids returned by
+ * [advance], and to [schedule] the ones that are not due yet again.
+ *
+ * @param tickMillis the granularity of the deadlines
+ * @param wheelSize the number of slots
+ */
+class TimingWheel(private val tickMillis: Long, wheelSize: Int, startMillis: Long = System.currentTimeMillis()) {
+
+    private val slots = Array(wheelSize) { LongOpenHashSet() }
+    /** The last tick that was advanced past */
+    private var tick = startMillis / tickMillis
+
+    /** Number of ids in the wheel, counting ids that are in multiple slots multiple times */
+    val size: Int
+        @Synchronized get() = slots.sumBy { it.size }
+
+    /** Deadlines that already passed are returned by the next call to [advance] */
+    @Synchronized
+    fun schedule(id: Long, deadlineMillis: Long) {
+        // Rounding up means ids are never returned before their deadline, except when wrapping around
+        val deadlineTick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, tick + 1)
+        slots[Math.floorMod(deadlineTick, slots.size.toLong()).toInt()].add(id)
+    }
+
+    /** @return the ids of all slots passed since the last call, at most one rotation's worth */
+    @Synchronized
+    fun advance(nowMillis: Long = System.currentTimeMillis()): LongArrayList {
+        val due = LongArrayList()
+        val target = nowMillis / tickMillis
+        val steps = Math.min(target - tick, slots.size.toLong())
+        for (i in 1..steps) {
+            val slot = slots[Math.floorMod(tick + i, slots.size.toLong()).toInt()]
+            if (slot.isEmpty()) continue
+            due.addAll(slot)
+            slot.clear()
+        }
+        if (target > tick) tick = target
+        return due
+    }
+}
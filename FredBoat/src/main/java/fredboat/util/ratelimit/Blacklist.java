@@ -27,22 +27,35 @@ package fredboat.util.ratelimit;
 import fredboat.db.api.BlacklistService;
 import fredboat.db.transfer.BlacklistEntry;
 import fredboat.feature.metrics.Metrics;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
  * Provides a forgiving blacklist with progressively increasing blacklist lengths
- *
- * In an environment where shards are running in different containers and not inside a single jar this class will need
- * some help in keeping bans up to date, that is, reading them from the database, either on changes (rethinkDB?) or
- * through an agent in regular periods
+ * <p>
+ * Lookups are answered from an in-memory snapshot of the currently blacklisted ids. Changes to the blacklist entries are
+ * queued and persisted in batches by {@link #sync()}, which also pulls blacklistings issued elsewhere into the snapshot
+ * if the backend supports fetching them. Until such a sync has succeeded, ids missing from the snapshot are looked up
+ * through the (cached) blacklist service without waiting for the result, and loaded into the snapshot if they turn out to
+ * be blacklisted. Such an id is only refused once the lookup completed, so a user that has been blacklisted by another
+ * process may get a message through before that.
  */
 public class Blacklist {
 
+    private static final Logger log = LoggerFactory.getLogger(Blacklist.class);
+
     //this holds progressively increasing lengths of blacklisting in milliseconds
     private static final List<Long> blacklistLevels;
 
@@ -56,6 +69,9 @@ public class Blacklist {
         );
     }
 
+    //how far the delta sync looks back past the previous sync, to not miss entries due to clock skew with the backend
+    private static final long SYNC_OVERLAP_MILLIS = 1000L * 60;
+
     private final long rateLimitHitsBeforeBlacklist;
 
     //users that can never be blacklisted
@@ -63,6 +79,19 @@ public class Blacklist {
 
     private final BlacklistService blacklistService; //implementation as a RestRepo includes a cache
 
+    //id -> time at which the blacklisting runs out. Copy on write, the message hot path reads it without locking
+    private volatile Long2LongMap snapshot = Long2LongMaps.EMPTY_MAP;
+
+    //entries that have been changed locally and are waiting to be merged into the backend, keyed by their id.
+    // several ratelimit hits of the same id in between two syncs coalesce into a single merge
+    private final Map<Long, BlacklistEntry> pendingMerges = new ConcurrentHashMap<>();
+
+    //blacklisted timestamp from which the next delta sync will fetch entries, 0 until the first successful sync
+    private volatile long syncedUntil = 0;
+
+    //false once the backend turned out to not serve entries blacklisted since a timestamp
+    private volatile boolean deltaSyncSupported = true;
+
 
     public Blacklist(BlacklistService blacklistService, Set<Long> userWhiteList, long rateLimitHitsBeforeBlacklist) {
         this.blacklistService = blacklistService;
@@ -82,18 +111,25 @@ public class Blacklist {
         //first of all, ppl that can never get blacklisted no matter what
         if (userWhiteList.contains(id)) return false;
 
-        BlacklistEntry blEntry = blacklistService.fetchBlacklistEntry(id);
-        if (blEntry.getLevel() < 0) return false; //blacklist entry exists, but id hasn't actually been blacklisted yet
+        long now = System.currentTimeMillis();
+        if (now < snapshot.get(id)) return true;
 
+        //after a successful delta sync the snapshot knows about every blacklisting that has not run out yet
+        if (isSnapshotComplete()) return false;
 
-        //id was a blacklisted, but it has run out
-        //noinspection RedundantIfStatement
-        if (System.currentTimeMillis() > blEntry.getBlacklistedTimestamp() + (getBlacklistTimeLength(blEntry.getLevel()))) {
-            return false;
-        }
+        //don't wait for the backend here. Cached entries complete right away and are accounted for below
+        blacklistService.fetchBlacklistEntryMono(id).subscribe(
+                blEntry -> {
+                    long until = blacklistedUntil(blEntry);
+                    if (System.currentTimeMillis() < until) updateSnapshot(id, until);
+                },
+                e -> log.debug("Could not look up blacklist entry {}", id, e)
+        );
+        return now < snapshot.get(id);
+    }
 
-        //looks like this id is blacklisted ¯\_(ツ)_/¯
-        return true;
+    private boolean isSnapshotComplete() {
+        return deltaSyncSupported && syncedUntil > 0;
     }
 
     /**
@@ -102,7 +138,11 @@ public class Blacklist {
     public long hitRateLimit(long id) {
         //update blacklist entry of this id
         long blacklistingLength = 0;
-        BlacklistEntry blEntry = blacklistService.fetchBlacklistEntry(id);
+        //an entry waiting to be merged is newer than whatever the backend has
+        BlacklistEntry blEntry = pendingMerges.get(id);
+        if (blEntry == null) {
+            blEntry = blacklistService.fetchBlacklistEntry(id);
+        }
 
         //synchronize on the individual blacklist entries since we are about to change and save them
         // we can use these to synchronize because they are backed by a cache, subsequent calls to fetch them
@@ -126,10 +166,10 @@ public class Blacklist {
                 blEntry.setRateLimitReached(0); //reset these for the next time
 
                 blacklistingLength = getBlacklistTimeLength(blEntry.getLevel());
+                updateSnapshot(id, blacklistedUntil(blEntry));
             }
-            //persist it
-            //if this turns up to be a performance bottleneck, have an agent run that persists the blacklist occasionally
-            blacklistService.mergeBlacklistEntry(blEntry);
+            //persisted by the next sync
+            pendingMerges.put(id, blEntry);
             return blacklistingLength;
         }
     }
@@ -138,9 +178,95 @@ public class Blacklist {
      * completely resets a blacklist for an id
      */
     public void liftBlacklist(long id) {
+        pendingMerges.remove(id);
+        removeFromSnapshot(id);
         blacklistService.deleteBlacklistEntry(id);
     }
 
+    /**
+     * Persists the queued changes to the blacklist entries, and fetches the entries that have been blacklisted since
+     * the last sync into the snapshot, unless the backend does not support that. Expired blacklistings are dropped from
+     * the snapshot.
+     * Expected to be called regularly, see {@link fredboat.agent.BlacklistSyncAgent}
+     */
+    public void sync() {
+        flushPendingMerges();
+
+        long now = System.currentTimeMillis();
+        List<BlacklistEntry> delta = Collections.emptyList();
+        boolean fetched = false;
+        if (deltaSyncSupported) {
+            //the first sync needs to look back as far as the longest blacklisting can last
+            long since = syncedUntil > 0
+                    ? syncedUntil - SYNC_OVERLAP_MILLIS
+                    : now - blacklistLevels.get(blacklistLevels.size() - 1);
+            try {
+                delta = blacklistService.fetchBlacklistedSince(since);
+                fetched = true;
+            } catch (UnsupportedOperationException e) {
+                log.info("Backend does not serve recently blacklisted entries, looking them up individually instead: {}",
+                        e.getMessage());
+                deltaSyncSupported = false;
+            } catch (Exception e) {
+                log.warn("Could not sync blacklist entries blacklisted since {}: {}", since, e.getMessage());
+            }
+        }
+        if (!delta.isEmpty() || !snapshot.isEmpty()) {
+            synchronized (this) {
+                Long2LongOpenHashMap updated = new Long2LongOpenHashMap(snapshot);
+                for (BlacklistEntry entry : delta) {
+                    //local changes that have not been persisted yet take precedence
+                    if (pendingMerges.containsKey(entry.getId())) continue;
+                    long id = entry.getId();
+                    long until = blacklistedUntil(entry);
+                    if (until > updated.get(id)) updated.put(id, until);
+                }
+                updated.long2LongEntrySet().removeIf(e -> e.getLongValue() <= now);
+                snapshot = updated;
+            }
+        }
+        if (fetched) {
+            syncedUntil = now;
+        }
+    }
+
+    private void flushPendingMerges() {
+        if (pendingMerges.isEmpty()) return;
+
+        List<BlacklistEntry> batch = new ArrayList<>(pendingMerges.values());
+        for (BlacklistEntry entry : batch) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (entry) {
+                //only dequeue the exact entry we are persisting, it may have been lifted or replaced meanwhile
+                if (!pendingMerges.remove(entry.getId(), entry)) continue;
+                try {
+                    blacklistService.mergeBlacklistEntry(entry);
+                } catch (Exception e) {
+                    log.warn("Could not merge blacklist entry {}, retrying on the next sync", entry.getId(), e);
+                    pendingMerges.putIfAbsent(entry.getId(), entry);
+                }
+            }
+        }
+    }
+
+    private synchronized void updateSnapshot(long id, long until) {
+        Long2LongOpenHashMap updated = new Long2LongOpenHashMap(snapshot);
+        updated.put(id, until);
+        snapshot = updated;
+    }
+
+    private synchronized void removeFromSnapshot(long id) {
+        if (!snapshot.containsKey(id)) return;
+        Long2LongOpenHashMap updated = new Long2LongOpenHashMap(snapshot);
+        updated.remove(id);
+        snapshot = updated;
+    }
+
+    private long blacklistedUntil(BlacklistEntry entry) {
+        if (entry.getLevel() < 0) return 0;
+        return entry.getBlacklistedTimestamp() + getBlacklistTimeLength(entry.getLevel());
+    }
+
     /**
      * Return length of a blacklist incident in milliseconds depending on the blacklist level
      */
@@ -29,25 +29,29 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import fredboat.messaging.internal.Context;
 import fredboat.util.rest.CacheUtil;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+import io.github.bucket4j.Refill;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
- * This class uses an algorithm based on leaky bucket, but is optimized, mainly we work around having tons of threads for
- * each bucket filling/emptying it, instead saving timestamps. As a result this class works better for shorter time
- * periods, as the amount of timestamps to hold decreases.
- * some calculations can be found here: https://docs.google.com/spreadsheets/d/1Afdn25AsFD-v3WQGp56rfVwO1y2d105IQk3dtfTcKwA/edit#gid=0
+ * Each user or guild gets a lock free bucket4j token bucket that holds maxRequests tokens and refills them smoothly over
+ * the time span, so checking a rate is constant time and does not block other threads. Requests weighing more than the
+ * bucket holds put it into debt, which has to be paid off by the refill before further requests are allowed.
  */
 public class Ratelimit {
 
@@ -58,8 +62,6 @@ public class Ratelimit {
     public enum Scope {USER, GUILD}
 
     private final LoadingCache<Long, Rate> rates;
-    private final long maxRequests;
-    private final long timeSpan;
 
     //users that can never be limited
     private final Set<Long> userWhiteList;
@@ -97,17 +99,16 @@ public class Ratelimit {
                      Set<Long> userWhiteList, Scope scope, long maxRequests, long milliseconds, Class clazz,
                      Function<Context, String> message) {
         this.executorService = executorService;
+        Bandwidth limit = Bandwidth.classic(maxRequests, Refill.smooth(maxRequests, Duration.ofMillis(milliseconds)));
         rates = CacheBuilder.newBuilder()
                 .recordStats()
-                //we can completely forget the object after this period, the rates would be reset anyways
+                //we can completely forget the object after this period, the bucket would be full again anyways
                 .expireAfterAccess(milliseconds, TimeUnit.MILLISECONDS)
-                .build(CacheLoader.from(Rate::new));
+                .build(CacheLoader.from(() -> new Rate(Bucket4j.builder().addLimit(limit).build())));
         cacheMetrics.addCache(name + "Ratelimit", rates);
 
         this.userWhiteList = Collections.unmodifiableSet(userWhiteList);
         this.scope = scope;
-        this.maxRequests = maxRequests;
-        this.timeSpan = milliseconds;
         this.clazz = clazz;
         this.message = message;
     }
@@ -119,8 +120,8 @@ public class Ratelimit {
     /**
      * @return a RateResult object containing information whether the users request is rate limited or not and the reason for that
      * <p>
-     * Caveat: This allows requests to overstep the ratelimit with single high weight requests.
-     * The clearing of timestamps ensures it will take longer for them to get available again though.
+     * Caveat: This allows single high weight requests as long as there is at least one token left. They are charged
+     * their full weight though, so it will take longer for the bucket to become available again.
      */
     public boolean isAllowed(Context context, int weight, @Nullable Blacklist blacklist) {
         //This gets called real often, right before every command execution. Keep it light, don't do any blocking stuff,
@@ -134,35 +135,10 @@ public class Ratelimit {
             id = context.getGuild().getId();
         }
 
-        Rate rate = CacheUtil.getUncheckedUnwrapped(rates, id);
-        if (rate == null) {
-            log.warn("Shiver me timbers, cache calling new Rate({}) returned null", id);
-            return true; //not expected to happen, let it slip in a user friendly way
-        }
-
-        //synchronize on the individual rate objects since we are about to change and save them
-        // we can use these to synchronize because they are backed by a cache, subsequent calls to fetch them
-        // will return the same object
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (rate) {
-            long now = System.currentTimeMillis();
-
-            //clear outdated timestamps
-            long maxTimeStampsToClear = (now - rate.lastUpdated) * maxRequests / timeSpan;
-            long cleared = 0;
-            while (rate.timeStamps.size() > 0 && rate.timeStamps.getLong(0) + timeSpan < now && cleared < maxTimeStampsToClear) {
-                rate.timeStamps.removeLong(0);
-                cleared++;
-            }
-
-            rate.lastUpdated = now;
-            //ALLOWED?
-            if (rate.timeStamps.size() < maxRequests) {
-                for (int i = 0; i < weight; i++)
-                    rate.timeStamps.add(now);
-                //everything is fine, get out of this method
-                return true;
-            }
+        //ALLOWED?
+        if (tryConsume(id, weight)) {
+            //everything is fine, get out of this method
+            return true;
         }
 
         //reaching this point in the code means a rate limit was hit
@@ -173,6 +149,15 @@ public class Ratelimit {
         return false;
     }
 
+    boolean tryConsume(long id, int weight) {
+        Rate rate = CacheUtil.getUncheckedUnwrapped(rates, id);
+        if (rate == null) {
+            log.warn("Shiver me timbers, cache creating a rate for {} returned null", id);
+            return true; //not expected to happen, let it slip in a user friendly way
+        }
+        return rate.tryConsume(Math.max(weight, 1));
+    }
+
     /**
      * Notifies the autoblacklist that a user has hit a limit, and handles the response of the blacklist
      * Best run async as the blacklist might be hitting a database
@@ -191,30 +176,31 @@ public class Ratelimit {
     /**
      * completely resets a limit for an id (user or guild for example)
      */
-    public synchronized void liftLimit(long id) {
+    public void liftLimit(long id) {
         rates.invalidate(id);
     }
 
-    class Rate {
-        //to whom this belongs
-        final long id;
+    private static class Rate {
+        private final Bucket bucket;
+        //tokens that allowed requests weighed beyond what the bucket held at the time
+        private final AtomicLong debt = new AtomicLong();
 
-        //last time this object was updated
-        //useful for keeping track of how many timeStamps should be removed to ensure the limit is enforced
-        long lastUpdated;
-
-        //collects the requests
-        LongArrayList timeStamps;
-
-        private Rate(long id) {
-            this.id = id;
-            this.lastUpdated = System.currentTimeMillis();
-            this.timeStamps = new LongArrayList();
+        Rate(Bucket bucket) {
+            this.bucket = bucket;
         }
 
-        @Override
-        public int hashCode() {
-            return Long.hashCode(id);
+        boolean tryConsume(long weight) {
+            long owed = debt.get();
+            if (owed > 0) {
+                long paid = bucket.tryConsumeAsMuchAsPossible(owed);
+                if (paid > 0) debt.accumulateAndGet(paid, (d, p) -> Math.max(0, d - p));
+                if (paid < owed) return false;
+            }
+
+            long consumed = bucket.tryConsumeAsMuchAsPossible(weight);
+            if (consumed <= 0) return false;
+            if (consumed < weight) debt.addAndGet(weight - consumed);
+            return true;
         }
     }
 }
@@ -42,6 +42,7 @@ import org.springframework.stereotype.Component;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -60,6 +61,8 @@ public class Ratelimiter {
     private static final int RATE_LIMIT_HITS_BEFORE_BLACKLIST = 10;
 
     private final List<Ratelimit> ratelimits;
+    //the ratelimits that apply to a class, in the same order as the ratelimits list
+    private final Map<Class<?>, Ratelimit[]> ratelimitsByClass = new ConcurrentHashMap<>();
     @Nullable
     private final Blacklist autoBlacklist;
 
@@ -113,25 +116,29 @@ public class Ratelimiter {
      * If they happen to be ratelimited, they will be messaged, so the caller of this can just return.
      */
     public boolean isRatelimited(Context context, Object command, int weight) {
-        for (Ratelimit ratelimit : ratelimits) {
-            if (ratelimit.getClazz().isInstance(command)) {
-                boolean allowed;
-                //don't blacklist guilds
-                if (ratelimit.scope == Ratelimit.Scope.GUILD) {
-                    allowed = ratelimit.isAllowed(context, weight);
-                } else {
-                    allowed = ratelimit.isAllowed(context, weight, autoBlacklist);
-                }
-                if (!allowed) {
-                    Metrics.commandsRatelimited.labels(command.getClass().getSimpleName()).inc();
-                    context.replyWithMention(ratelimit.getMessage().apply(context));
-                    return true;
-                }
+        for (Ratelimit ratelimit : getRatelimits(command.getClass())) {
+            boolean allowed;
+            //don't blacklist guilds
+            if (ratelimit.scope == Ratelimit.Scope.GUILD) {
+                allowed = ratelimit.isAllowed(context, weight);
+            } else {
+                allowed = ratelimit.isAllowed(context, weight, autoBlacklist);
+            }
+            if (!allowed) {
+                Metrics.commandsRatelimited.labels(command.getClass().getSimpleName()).inc();
+                context.replyWithMention(ratelimit.getMessage().apply(context));
+                return true;
             }
         }
         return false;
     }
 
+    private Ratelimit[] getRatelimits(Class<?> clazz) {
+        return ratelimitsByClass.computeIfAbsent(clazz, c -> ratelimits.stream()
+                .filter(ratelimit -> ratelimit.getClazz().isAssignableFrom(c))
+                .toArray(Ratelimit[]::new));
+    }
+
     public boolean isRatelimited(Context context, Object command) {
         return isRatelimited(context, command, 1);
     }
@@ -154,4 +161,12 @@ public class Ratelimiter {
         if (autoBlacklist != null)
             autoBlacklist.liftBlacklist(id);
     }
+
+    /**
+     * Persist pending blacklist changes and pull in blacklistings from the backend
+     */
+    public void syncBlacklist() {
+        if (autoBlacklist != null)
+            autoBlacklist.sync();
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.queue
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor
+import fredboat.definitions.RepeatMode
+import fredboat.sentinel.Guild
+import fredboat.sentinel.Member
+import fredboat.sentinel.Role
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.Raws
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+
+/**
+ * Runs random sequences of queue operations against a [SimpleTrackProvider] and compares the incrementally maintained
+ * aggregates and indices with a full recount of the queue.
+ */
+class SimpleTrackProviderTest : BaseTest() {
+
+    private val guild = object : Guild(Raws.guild) {}
+    private val members = (1L..5L).map { id ->
+        object : Member(guild, id, false) {
+            override val name = "user$id"
+            override val discrim = "000$id"
+            override val nickname: String? = null
+            override val roles = emptyList<Role>()
+        }
+    }
+
+    @Test
+    fun aggregatesMatchRecount() {
+        for (seed in 1L..20L) {
+            val random = Random(seed)
+            val provider = SimpleTrackProvider()
+            for (step in 1..500) {
+                randomOperation(provider, random)
+                assertConsistent(provider, "seed $seed step $step")
+            }
+        }
+    }
+
+    private fun randomOperation(provider: SimpleTrackProvider, random: Random) {
+        when (random.nextInt(100)) {
+            in 0..29 -> provider.add(randomTrack(random))
+            in 30..34 -> provider.addFirst(randomTrack(random))
+            in 35..39 -> provider.addAll((0..random.nextInt(5)).map { randomTrack(random) })
+            in 40..42 -> provider.addAllFirst((0..random.nextInt(5)).map { randomTrack(random) })
+            in 43..54 -> provider.provideAudioTrack()
+            in 55..62 -> randomTrackOf(provider, random)?.let { provider.remove(it) }
+            in 63..67 -> provider.removeAllById((0..random.nextInt(3)).mapNotNull { randomTrackOf(provider, random)?.trackId })
+            in 68..72 -> provider.repeatMode = RepeatMode.values()[random.nextInt(RepeatMode.values().size)]
+            in 73..77 -> provider.isShuffle = !provider.isShuffle
+            in 78..80 -> provider.reshuffle()
+            in 81..83 -> provider.skipped()
+            in 84..85 -> provider.clear()
+            else -> provider.getTracksInRange(random.nextInt(10), random.nextInt(20))
+        }
+    }
+
+    private fun assertConsistent(provider: SimpleTrackProvider, message: String) {
+        val tracks = provider.asList
+        Assertions.assertEquals(tracks.size, provider.size(), message)
+        Assertions.assertEquals(tracks.isEmpty(), provider.isEmpty, message)
+        Assertions.assertEquals(tracks.filter { !it.track.info.isStream }.map { it.effectiveDuration }.sum(),
+                provider.durationMillis, message)
+        Assertions.assertEquals(tracks.count { it.track.info.isStream }, provider.streamsCount(), message)
+        for (member in members) {
+            Assertions.assertEquals(tracks.count { it.userId == member.id }, provider.userTrackCount(member.id), message)
+        }
+
+        val ordered = provider.asListOrdered
+        Assertions.assertEquals(tracks.size, ordered.size, message)
+        if (provider.isShuffle) {
+            Assertions.assertEquals(ordered.sortedBy { it.rand }.map { it.rand }, ordered.map { it.rand }, message)
+        } else {
+            Assertions.assertEquals(tracks, ordered, message)
+        }
+        Assertions.assertEquals(ordered.firstOrNull(), provider.peek(), message)
+        Assertions.assertEquals(ordered.subList(Math.min(2, ordered.size), Math.min(7, ordered.size)),
+                provider.getTracksInRange(2, 7), message)
+    }
+
+    private fun randomTrack(random: Random): AudioTrackContext {
+        val isStream = random.nextInt(10) == 0
+        val length = if (isStream) Long.MAX_VALUE else random.nextInt(600_000).toLong()
+        val info = AudioTrackInfo("title", "author", length, "identifier", isStream, "uri")
+        return AudioTrackContext(FakeTrack(info), members[random.nextInt(members.size)], random.nextBoolean())
+    }
+
+    private fun randomTrackOf(provider: SimpleTrackProvider, random: Random): AudioTrackContext? {
+        if (provider.isEmpty) return null
+        return provider.getTrack(random.nextInt(provider.size()))
+    }
+
+    private class FakeTrack(info: AudioTrackInfo) : DelegatedAudioTrack(info) {
+        override fun process(executor: LocalAudioTrackExecutor) {
+            throw UnsupportedOperationException()
+        }
+        override fun makeClone(): AudioTrack = FakeTrack(info)
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.commandmeta
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.regex.Pattern
+
+/**
+ * Makes sure the hand written scanning of [CommandContextParser] behaves exactly like the regexes it replaced
+ */
+class CommandContextParserTest : BaseTest() {
+
+    private val mentionPrefix = Pattern.compile("^(<@!?([0-9]+)>)(.*)$", Pattern.DOTALL)
+    private val botId = "152691313123393536"
+
+    private val inputs = listOf(
+            "",
+            "play",
+            "play some song",
+            "play  some   song  ",
+            "play\u00A0some\u2003song",
+            "\u00A0play song",
+            " play song",
+            "play\nsome\tsong",
+            "play song  ",
+            "  ",
+            "<@$botId>",
+            "<@$botId> play song",
+            "<@!$botId>play",
+            "<@!$botId>\nplay\nsong",
+            "<@!!$botId> play",
+            "<@123> play",
+            "<@${botId}1> play",
+            "<@> play",
+            "<@$botId play",
+            " <@$botId> play",
+            "<@!>"
+    )
+
+    @Test
+    fun mentionPrefix() {
+        for (input in inputs) {
+            val matcher = mentionPrefix.matcher(input)
+            val expected = if (matcher.find() && matcher.group(2) == botId) matcher.group(3) else null
+            val end = CommandContextParser.mentionPrefixEnd(input, botId)
+            val actual = if (end >= 0) input.substring(end) else null
+            Assertions.assertEquals(expected, actual, "mention prefix of `$input`")
+        }
+    }
+
+    @Test
+    fun splitArgs() {
+        for (input in inputs) {
+            val expected = input.split("\\p{javaSpaceChar}+".toRegex()).dropLastWhile { it.isEmpty() }
+            val actual = CommandContextParser.splitArgs(input).toList()
+            Assertions.assertEquals(expected, actual, "args of `$input`")
+        }
+    }
+}
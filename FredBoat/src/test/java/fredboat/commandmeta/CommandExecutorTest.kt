@@ -0,0 +1,75 @@
+package fredboat.commandmeta
+
+import fredboat.feature.metrics.collectors.ThreadPoolCollector
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class CommandExecutorTest : BaseTest() {
+
+    private val executor = CommandExecutor(ThreadPoolCollector(), cpuThreads = 1, ioThreads = 3,
+            maxRunningPerGuild = 2, maxQueuedPerGuild = 3, maxQueued = 6)
+    private val release = CountDownLatch(1)
+
+    @AfterEach
+    fun tearDown() {
+        release.countDown()
+        executor.destroy()
+    }
+
+    @Test
+    fun guildCantOccupyTheWholePool() {
+        val started = AtomicInteger()
+        val completed = AtomicInteger()
+        repeat(5) {
+            assertTrue(executor.execute(1, true) {
+                started.incrementAndGet()
+                release.await()
+                completed.incrementAndGet()
+            })
+        }
+        assertFalse(executor.execute(1, true) {}, "Expected the queue of the guild to be full")
+
+        // The guild only got two of the three threads
+        val otherGuild = CountDownLatch(1)
+        assertTrue(executor.execute(2, true) { otherGuild.countDown() })
+        assertTrue(otherGuild.await(5, TimeUnit.SECONDS))
+        assertEquals(2, started.get())
+
+        release.countDown()
+        waitFor { completed.get() == 5 }
+    }
+
+    @Test
+    fun fullPoolRejects() {
+        val started = AtomicInteger()
+        for (guild in 1L..3L) executor.execute(guild, true) { started.incrementAndGet(); release.await() }
+        waitFor { started.get() == 3 }
+
+        for (guild in 4L..9L) assertTrue(executor.execute(guild, true) {})
+        assertEquals(6, executor.queued(true))
+        assertFalse(executor.execute(10, true) {}, "Expected the pool to be full")
+
+        // The other pool is unaffected
+        val cpu = CountDownLatch(1)
+        assertTrue(executor.execute(10, false) { cpu.countDown() })
+        assertTrue(cpu.await(5, TimeUnit.SECONDS))
+
+        release.countDown()
+        waitFor { executor.queued(true) == 0 }
+    }
+
+    private fun waitFor(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out")
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fredboat.commandmeta
+
+import fredboat.config.property.AppConfigProperties
+import fredboat.sentinel.RawUser
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class CommandPrefixFilterTest : BaseTest() {
+
+    private val guild = 174820236481134592L
+    private val filter = CommandPrefixFilter(
+            AppConfigProperties().apply { prefix = ";;" },
+            RawUser(152691313123393536, "FredBoatβ", "5143", true)
+    )
+
+    @Test
+    fun unknownGuildsPass() {
+        assertTrue(filter.isPossibleCommand(guild, "just chatting"))
+    }
+
+    @Test
+    fun defaultPrefix() {
+        filter.onPrefixLoaded(guild, null, filter.generation(guild))
+        assertTrue(filter.isPossibleCommand(guild, ";;play"))
+        assertTrue(filter.isPossibleCommand(guild, "<@!152691313123393536> help"))
+        assertFalse(filter.isPossibleCommand(guild, "just chatting"))
+        assertFalse(filter.isPossibleCommand(guild, "<@81011298891993088> hi"))
+        assertEquals(1, filter.size)
+    }
+
+    @Test
+    fun customPrefix() {
+        filter.onPrefixLoaded(guild, "!", filter.generation(guild))
+        assertTrue(filter.isPossibleCommand(guild, "!play"))
+        assertTrue(filter.isPossibleCommand(guild, ";;help"))
+        assertFalse(filter.isPossibleCommand(guild, "?play"))
+
+        filter.forget(guild)
+        assertTrue(filter.isPossibleCommand(guild, "?play"))
+    }
+
+    @Test
+    fun emptyPrefixLetsEverythingPass() {
+        filter.onPrefixLoaded(guild, "", filter.generation(guild))
+        assertTrue(filter.isPossibleCommand(guild, "just chatting"))
+    }
+
+    @Test
+    fun loadsStartedBeforeForgettingAreIgnored() {
+        filter.onPrefixLoaded(guild, "!", filter.generation(guild))
+        val staleLoad = filter.generation(guild)
+
+        // The prefix is changed to "?" while the old one is still being loaded
+        filter.forget(guild)
+        filter.onPrefixLoaded(guild, "!", staleLoad)
+        assertTrue(filter.isPossibleCommand(guild, "?play"))
+
+        filter.onPrefixLoaded(guild, "?", filter.generation(guild))
+        assertTrue(filter.isPossibleCommand(guild, "?play"))
+        assertFalse(filter.isPossibleCommand(guild, "!play"))
+    }
+
+    @Test
+    fun expiredPrefixesLetEverythingPass() {
+        val expiring = CommandPrefixFilter(
+                AppConfigProperties().apply { prefix = ";;" },
+                RawUser(152691313123393536, "FredBoatβ", "5143", true),
+                500
+        )
+        expiring.onPrefixLoaded(guild, "!", expiring.generation(guild))
+        assertFalse(expiring.isPossibleCommand(guild, "?play"))
+
+        // The prefix may have been changed by another process meanwhile
+        Thread.sleep(600)
+        assertTrue(expiring.isPossibleCommand(guild, "?play"))
+
+        expiring.onPrefixLoaded(guild, "?", expiring.generation(guild))
+        assertTrue(expiring.isPossibleCommand(guild, "?play"))
+        assertFalse(expiring.isPossibleCommand(guild, "!play"))
+    }
+
+    @Test
+    fun removedGuildsAreDropped() {
+        filter.onPrefixLoaded(guild, "!", filter.generation(guild))
+        filter.forget(guild)
+        filter.onPrefixLoaded(guild, "!", filter.generation(guild))
+
+        filter.remove(guild)
+        assertEquals(0, filter.size)
+        assertEquals(0, filter.generation(guild))
+    }
+}
@@ -0,0 +1,33 @@
+package fredboat.db.rest
+
+import fredboat.db.transfer.Prefix
+import fredboat.testutil.IntegrationTest
+import fredboat.testutil.sentinel.Raws
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class GuildSettingsPrefetcherTest : IntegrationTest() {
+
+    @Test
+    fun fetchCachesAllSettings(
+            prefetcher: GuildSettingsPrefetcher,
+            guildConfigService: RestGuildConfigService,
+            guildModulesService: RestGuildModulesService,
+            guildPermsService: RestGuildPermsService,
+            prefixService: RestPrefixService
+    ) {
+        // A guild no other test looks up, so its settings can't be cached already
+        val guildId = Raws.guild.id + 2
+        val prefixId = Prefix.GuildBotId(guildId, Raws.self.id)
+        assertFalse(guildConfigService.isCached(guildId.toString()))
+        assertFalse(prefixService.isPrefixCached(prefixId))
+
+        prefetcher.fetch(guildId).block()
+
+        assertTrue(guildConfigService.isCached(guildId.toString()))
+        assertTrue(guildModulesService.isCached(guildId))
+        assertTrue(guildPermsService.isCached(guildId.toString()))
+        assertTrue(prefixService.isPrefixCached(prefixId))
+    }
+}
@@ -0,0 +1,81 @@
+package fredboat.db.rest
+
+import com.google.common.base.Ticker
+import com.google.common.cache.CacheBuilder
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class MonoCacheTest : BaseTest() {
+
+    @Test
+    fun concurrentMissesShareOneRequest() {
+        val requests = AtomicInteger()
+        val response = MonoProcessor.create<String>()
+        val cache = MonoCache<Long, String>(CacheBuilder.newBuilder(), "test") {
+            requests.incrementAndGet()
+            response
+        }
+
+        val first = cache.get(1).toFuture()
+        val second = cache.get(1).toFuture()
+        response.onNext("value")
+
+        assertEquals("value", first.get())
+        assertEquals("value", second.get())
+        assertEquals("value", cache.get(1).block())
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun failedRequestsAreRetried() {
+        val requests = AtomicInteger()
+        val cache = MonoCache<Long, String>(CacheBuilder.newBuilder(), "test") {
+            if (requests.incrementAndGet() == 1) Mono.error(BackendException("Unavailable")) else Mono.just("value")
+        }
+
+        assertThrows(BackendException::class.java) { cache.get(1).block() }
+        assertEquals("value", cache.get(1).block())
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun emptyResultsAreCached() {
+        val requests = AtomicInteger()
+        val cache = MonoCache<Long, String>(CacheBuilder.newBuilder(), "test") {
+            requests.incrementAndGet()
+            Mono.empty()
+        }
+
+        assertEquals(null, cache.get(1).block())
+        assertEquals(null, cache.get(1).block())
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun staleValuesAreServedWhileRefreshing() {
+        var now = 0L
+        val ticker = object : Ticker() {
+            override fun read() = now
+        }
+        val refreshed = MonoProcessor.create<String>()
+        val requests = AtomicInteger()
+        val cache = MonoCache<Long, String>(MonoCache.refreshAhead().ticker(ticker), "test") {
+            if (requests.incrementAndGet() == 1) Mono.just("old") else refreshed
+        }
+
+        assertEquals("old", cache.get(1).block())
+        now += TimeUnit.SECONDS.toNanos(61)
+        assertEquals("old", cache.get(1).block())
+        assertEquals(2, requests.get())
+
+        refreshed.onNext("new")
+        assertEquals("new", cache.get(1).block())
+        assertEquals(2, requests.get())
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.transfer
+
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist
+import fredboat.testutil.BaseTest
+import org.apache.commons.lang3.SerializationUtils
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SearchResultCodecTest : BaseTest() {
+
+    private val youtube = YoutubeAudioSourceManager()
+    private val playerManager = DefaultAudioPlayerManager().apply { registerSourceManager(youtube) }
+
+    /** What a typical search through the TrackSearcher caches: 5 youtube results */
+    private val searchResult: AudioPlaylist = BasicAudioPlaylist("Search results for: never gonna give you up",
+            (1..5).map {
+                YoutubeAudioTrack(AudioTrackInfo("Rick Astley - Never Gonna Give You Up (Official Music Video) $it",
+                        "Rick Astley", 213000L + it, "dQw4w9WgXc$it", false,
+                        "https://www.youtube.com/watch?v=dQw4w9WgXc$it"), youtube)
+            },
+            null,
+            true)
+
+    @AfterAll
+    fun tearDown() {
+        playerManager.shutdown()
+    }
+
+    @Test
+    fun roundTrip() {
+        val decoded = SearchResultCodec.decode(playerManager, SearchResultCodec.encode(playerManager, searchResult))
+        assertSamePlaylist(searchResult, decoded)
+    }
+
+    @Test
+    fun readsJavaSerializedBlobs() {
+        val legacy = SerializationUtils.serialize(SearchResult.SerializableAudioPlaylist(playerManager, searchResult))
+        assertSamePlaylist(searchResult, SearchResultCodec.decode(playerManager, legacy))
+    }
+
+    /**
+     * Not a rigorous benchmark, but enough to compare the two formats. Results are logged.
+     */
+    @Test
+    fun benchmarkAgainstJavaSerialization() {
+        val legacyBytes = SerializationUtils.serialize(SearchResult.SerializableAudioPlaylist(playerManager, searchResult))
+        val codecBytes = SearchResultCodec.encode(playerManager, searchResult)
+
+        val iterations = 5_000
+        val legacyEncode = measure(iterations) {
+            SerializationUtils.serialize(SearchResult.SerializableAudioPlaylist(playerManager, searchResult))
+        }
+        val codecEncode = measure(iterations) { SearchResultCodec.encode(playerManager, searchResult) }
+        val legacyDecode = measure(iterations) { SearchResultCodec.decode(playerManager, legacyBytes) }
+        val codecDecode = measure(iterations) { SearchResultCodec.decode(playerManager, codecBytes) }
+
+        log.info("5 result search, java serialization: {} bytes, encode {}µs, decode {}µs",
+                legacyBytes.size, legacyEncode, legacyDecode)
+        log.info("5 result search, search result codec: {} bytes, encode {}µs, decode {}µs",
+                codecBytes.size, codecEncode, codecDecode)
+
+        Assertions.assertTrue(codecBytes.size < legacyBytes.size,
+                "Codec produced ${codecBytes.size} bytes, java serialization ${legacyBytes.size} bytes")
+    }
+
+    /**
+     * @return average microseconds per run, measured after an equally long warmup
+     */
+    private fun measure(iterations: Int, block: () -> Any): Double {
+        repeat(iterations) { block() }
+        val start = System.nanoTime()
+        repeat(iterations) { block() }
+        return (System.nanoTime() - start) / 1000.0 / iterations
+    }
+
+    private fun assertSamePlaylist(expected: AudioPlaylist, actual: AudioPlaylist) {
+        Assertions.assertEquals(expected.name, actual.name)
+        Assertions.assertEquals(expected.isSearchResult, actual.isSearchResult)
+        Assertions.assertEquals(expected.selectedTrack?.identifier, actual.selectedTrack?.identifier)
+        Assertions.assertEquals(expected.tracks.map { it.info.identifier to it.info.title },
+                actual.tracks.map { it.info.identifier to it.info.title })
+    }
+}
@@ -0,0 +1,31 @@
+package fredboat.event
+
+import com.fredboat.sentinel.entities.*
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+import java.time.Instant
+
+class EventDispatchTableTest : BaseTest() {
+
+    private open class LeaveHandler : SentinelEventHandler() {
+        override fun onGuildLeave(guildId: Long, joinTime: Instant) {}
+    }
+
+    private class LeaveAndDeleteHandler : LeaveHandler() {
+        override fun onGuildMessageDelete(guildId: Long, channelId: Long, messageId: Long) {}
+    }
+
+    @Test
+    fun onlyOverridingHandlersAreDispatchedTo() {
+        val leave = LeaveHandler()
+        val leaveAndDelete = LeaveAndDeleteHandler()
+        val table = EventDispatchTable(listOf(leaveAndDelete, leave))
+
+        assertArrayEquals(arrayOf(leaveAndDelete, leave), table[GuildLeaveEvent::class.java])
+        assertArrayEquals(arrayOf(leaveAndDelete), table[MessageDeleteEvent::class.java])
+        assertArrayEquals(arrayOf<SentinelEventHandler>(), table[MessageReceivedEvent::class.java])
+        assertThrows(IllegalArgumentException::class.java) { table[GuildUpdateEvent::class.java] }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package fredboat.feature;
+
+import fredboat.testutil.BaseTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.text.MessageFormat;
+import java.util.ResourceBundle;
+
+public class I18nTemplateTest extends BaseTest {
+
+    private static final Object[] PARAMS = {"first", 1234567, 'c', 4.5};
+
+    @Test
+    public void testFormatsLikeMessageFormat() {
+        I18n.start();
+
+        for (I18n.FredBoatLocale locale : I18n.LANGS.values()) {
+            ResourceBundle props = locale.getProps();
+            for (String key : props.keySet()) {
+                String expected;
+                try {
+                    expected = MessageFormat.format(props.getString(key), PARAMS);
+                } catch (IllegalArgumentException e) {
+                    Assertions.assertThrows(IllegalArgumentException.class, () -> locale.getTemplate(key));
+                    continue;
+                }
+                Assertions.assertEquals(expected, locale.getTemplate(key).format(PARAMS),
+                        () -> key + " of " + locale + " is formatted differently");
+            }
+        }
+    }
+
+    @Test
+    public void testQuotes() {
+        String pattern = "Can''t '{0}' {0} '''{1}''' {2} {1}";
+        Assertions.assertEquals(MessageFormat.format(pattern, PARAMS), I18nTemplate.compile(pattern).format(PARAMS));
+    }
+
+    @Test
+    public void testRawTemplates() {
+        I18nTemplate template = I18nTemplate.compileRaw("Can't {0} {1} '{0}' {} {x} {3}");
+        Assertions.assertEquals("Can't a 1 'a' {} {x} {3}", template.format("a", 1));
+    }
+}
@@ -0,0 +1,94 @@
+package fredboat.feature.metrics
+
+import fredboat.feature.metrics.CommandTrace.Stage
+import fredboat.testutil.BaseTest
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import java.time.Duration
+
+class CommandTraceTest : BaseTest() {
+
+    /** Snowflake of a message sent right now */
+    private fun messageId() = (System.currentTimeMillis() - 1420070400000L) shl 22
+
+    @Test
+    fun traceFollowsItsCoroutine() {
+        val trace = CommandTrace(messageId())
+        assertNull(CommandTrace.current())
+        runBlocking(trace.asContextElement()) {
+            assertSame(trace, CommandTrace.current())
+            withContext(Dispatchers.Default) {
+                assertSame(trace, CommandTrace.current())
+            }
+        }
+        assertNull(CommandTrace.current())
+    }
+
+    @Test
+    fun stagesAddUp() {
+        val trace = CommandTrace(messageId())
+        trace.measure(Stage.REPLY, Mono.delay(Duration.ofMillis(50))).block()
+        trace.measure(Stage.REPLY, Mono.delay(Duration.ofMillis(50))).block()
+        trace.measure(Stage.EXECUTE) { Thread.sleep(20) }
+
+        assertTrue(trace[Stage.REPLY] >= 100_000_000, "Expected both replies to be recorded")
+        assertTrue(trace[Stage.EXECUTE] >= 20_000_000)
+        assertEquals(0, trace[Stage.PERMS])
+    }
+
+    @Test
+    fun permissionRequestsWithinPermsAreNotCountedTwice() {
+        val trace = CommandTrace(messageId())
+        trace.measure(Stage.PERMS) {
+            trace.measure(Stage.PERMS, Mono.delay(Duration.ofMillis(100))).block()
+        }
+
+        assertTrue(trace[Stage.PERMS] >= 100_000_000)
+        assertTrue(trace[Stage.PERMS] < 200_000_000, "Expected the request to only be timed by the enclosing block")
+    }
+
+    @Test
+    fun stagesAreObservedOncePerCommand() {
+        val repliesBefore = stageCount(Stage.REPLY)
+        val parsesBefore = stageCount(Stage.PARSE)
+        val trace = CommandTrace(messageId())
+        trace.onParsed("TestCommand", 1000)
+        val release = MonoProcessor.create<String>()
+        trace.measure(Stage.REPLY, release).subscribe()
+        trace.measure(Stage.REPLY, Mono.just("")).block()
+        trace.finish()
+        assertEquals(repliesBefore, stageCount(Stage.REPLY), "Expected to wait for the pending reply")
+
+        release.onNext("")
+        assertEquals(repliesBefore + 1, stageCount(Stage.REPLY))
+        assertEquals(parsesBefore + 1, stageCount(Stage.PARSE))
+    }
+
+    @Test
+    fun messagesThatAreNotCommandsAreNotObserved() {
+        val before = stageCount(Stage.DELIVERY)
+        CommandTrace(messageId())
+        assertEquals(before, stageCount(Stage.DELIVERY))
+    }
+
+    private fun stageCount(stage: Stage) = Metrics.commandStageDuration.collect()[0].samples
+            .firstOrNull { it.name.endsWith("_count") && it.labelValues == listOf(stage.label) }?.value ?: 0.0
+
+    @Test
+    fun onlyFirstReplyIsObserved() {
+        val before = Metrics.commandReplyLatency.collect()[0].samples.first { it.name.endsWith("_count") }.value
+        val trace = CommandTrace(messageId())
+        trace.onReplied(messageId())
+        trace.onReplied(messageId())
+        val after = Metrics.commandReplyLatency.collect()[0].samples.first { it.name.endsWith("_count") }.value
+        assertEquals(before + 1, after)
+    }
+}
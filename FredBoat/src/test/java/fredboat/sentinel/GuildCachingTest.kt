@@ -3,8 +3,12 @@ package fredboat.sentinel
 import com.fredboat.sentinel.entities.GuildSubscribeRequest
 import fredboat.testutil.IntegrationTest
 import fredboat.testutil.sentinel.SentinelState
+import fredboat.testutil.sentinel.guildCache
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
 import org.junit.jupiter.api.Test
+import java.time.Duration
 
 class GuildCachingTest : IntegrationTest() {
 
@@ -18,4 +22,23 @@ class GuildCachingTest : IntegrationTest() {
         assertEquals("Expected only one subscribe request", 1, SentinelState.outgoing[GuildSubscribeRequest::class.java]?.size)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun getAllBatchesSubscriptions() {
+        val guildId = SentinelState.guild.id
+        val unknownId = guildId + 1 // Same shard, but not known to the Sentinel
+        guildCache.cache.remove(guildId)
+
+        val guilds = guildCache.getAll(listOf(guildId, unknownId, guildId)).collectList().block(Duration.ofSeconds(10))!!
+        assertEquals(listOf(guildId), guilds.map { it.id })
+        assertNotNull(guildCache.getIfCached(guildId))
+
+        val request = SentinelState.poll(GuildSubscribeBatchRequest::class.java)!!
+        assertEquals(setOf(guildId, unknownId), request.ids.toSet())
+        assertEquals(2, request.ids.size)
+
+        // Cached guilds are not requested again
+        guildCache.getAll(listOf(guildId)).collectList().block(Duration.ofSeconds(10))
+        assertNull(SentinelState.poll(GuildSubscribeBatchRequest::class.java, timeoutMillis = 500))
+    }
+
+}
@@ -0,0 +1,68 @@
+package fredboat.sentinel
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.springframework.amqp.AmqpRejectAndDontRequeueException
+import org.springframework.amqp.rabbit.listener.RabbitListenerErrorHandler
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class GuildEventDispatcherTest : BaseTest() {
+
+    private val errors = LinkedBlockingQueue<Throwable>()
+    private val errorHandler = RabbitListenerErrorHandler { _, _, t ->
+        errors.add(t.cause)
+        throw AmqpRejectAndDontRequeueException(t)
+    }
+    private val dispatcher = GuildEventDispatcher(errorHandler, 4)
+
+    @AfterEach
+    fun tearDown() = dispatcher.destroy()
+
+    @Test
+    fun eventsOfOneKeyKeepTheirOrder() {
+        val handled = Collections.synchronizedList(mutableListOf<Int>())
+        val done = CountDownLatch(1)
+        for (i in 0 until 100) {
+            dispatcher.dispatch(42) {
+                handled.add(i)
+                if (i == 99) done.countDown()
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        assertEquals((0 until 100).toList(), handled)
+    }
+
+    @Test
+    fun fullStripeBlocksTheDispatchingThread() {
+        val release = CountDownLatch(1)
+        dispatcher.dispatch(42) { release.await() }
+        // Make sure the blocking task has left the queue before filling it
+        Thread.sleep(100)
+        repeat(4) { dispatcher.dispatch(42) {} }
+
+        val overflow = Thread { dispatcher.dispatch(42) {} }
+        overflow.start()
+        overflow.join(300)
+        assertTrue(overflow.isAlive, "Dispatching to a full stripe should block")
+
+        release.countDown()
+        overflow.join(5000)
+        assertFalse(overflow.isAlive, "Dispatching should continue once the stripe has room")
+    }
+
+    @Test
+    fun failuresArePassedToTheErrorHandler() {
+        val rejection = AmqpRejectAndDontRequeueException("Got VoiceJoinEvent for unknown channel")
+        dispatcher.dispatch(42) { throw rejection }
+
+        assertEquals(rejection, errors.poll(10, TimeUnit.SECONDS))
+    }
+}
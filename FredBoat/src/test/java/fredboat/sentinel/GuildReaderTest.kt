@@ -0,0 +1,93 @@
+package fredboat.sentinel
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.SyntheticGuilds
+import fredboat.testutil.sentinel.SyntheticGuilds.memberId
+import fredboat.testutil.util.allocatedBytes
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class GuildReaderTest : BaseTest() {
+
+    private val mapper = ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerKotlinModule()
+    private val reader = GuildReader()
+
+    /** Builds the guild the way subscribing did before the [GuildReader], minus [InternalGuild.onLoaded] */
+    private fun bind(json: ByteArray): InternalGuild {
+        val raw = mapper.readValue(json, RawGuild::class.java)
+        return InternalGuild(raw.id).apply { update(raw) }
+    }
+
+    @Test
+    fun readMatchesBoundGuild() {
+        val raw = SyntheticGuilds.guild(1_000)
+        val bound = bind(mapper.writeValueAsBytes(raw))
+        val streamed = reader.read(mapper.writeValueAsBytes(raw))!!.guild
+
+        assertEquals(bound.name, streamed.name)
+        assertEquals(bound.owner, streamed.owner)
+        assertEquals(bound.roles.keys, streamed.roles.keys)
+        assertEquals(bound.textChannels.keys, streamed.textChannels.keys)
+        assertEquals(bound.members.keys, streamed.members.keys)
+        bound.members.values.forEach { expected ->
+            val actual = streamed.getMember(expected.id)!!
+            assertEquals(expected.name, actual.name)
+            assertEquals(expected.nickname, actual.nickname)
+            assertEquals(expected.discrim, actual.discrim)
+            assertEquals(expected.isBot, actual.isBot)
+            assertEquals(expected.roles.map { it.id }, actual.roles.map { it.id })
+            assertEquals(expected.voiceChannel?.id, actual.voiceChannel?.id)
+        }
+        assertEquals(bound.voiceChannels.values.map { it.memberCount }, streamed.voiceChannels.values.map { it.memberCount })
+    }
+
+    @Test
+    fun readEmptyResponse() {
+        assertNull(reader.read(ByteArray(0)))
+        assertNull(reader.read("null".toByteArray()))
+    }
+
+    @Test
+    fun readGuildWithoutLeadingId() {
+        val json = """{"name":"Reordered","id":${SyntheticGuilds.GUILD_ID},"owner":null,"members":[],"textChannels":[],
+            |"voiceChannels":[],"roles":[],"voiceServerUpdate":null}""".trimMargin()
+        val guild = reader.read(json.toByteArray())!!.guild
+        assertEquals(SyntheticGuilds.GUILD_ID, guild.id)
+        assertEquals("Reordered", guild.name)
+    }
+
+    /**
+     * Compares binding a subscribe response of a 250k member guild to a [RawGuild] and building the guild from that,
+     * which is what subscribing used to do, against reading it with the [GuildReader]. Not a rigorous benchmark, as
+     * the allocations depend on the JVM. Results are logged.
+     */
+    @Test
+    fun benchmarkLargeGuild() {
+        val json = mapper.writeValueAsBytes(SyntheticGuilds.guild(250_000))
+
+        // Warm up
+        repeat(2) {
+            bind(json)
+            reader.read(json)
+        }
+
+        var boundGuild: Guild? = null
+        var streamedGuild: Guild? = null
+        val boundStart = System.nanoTime()
+        val boundBytes = allocatedBytes { boundGuild = bind(json) }
+        val boundMillis = (System.nanoTime() - boundStart) / 1_000_000
+        val streamedStart = System.nanoTime()
+        val streamedBytes = allocatedBytes { streamedGuild = reader.read(json)!!.guild }
+        val streamedMillis = (System.nanoTime() - streamedStart) / 1_000_000
+
+        log.info("Subscribe response of {} KiB: binding allocated {} KiB in {}ms, streaming allocated {} KiB in {}ms",
+                json.size / 1024, boundBytes / 1024, boundMillis, streamedBytes / 1024, streamedMillis)
+        assertEquals(boundGuild!!.members.size, streamedGuild!!.members.size)
+        assertNotNull(streamedGuild!!.getMember(memberId(249_999)))
+    }
+}
@@ -0,0 +1,62 @@
+package fredboat.sentinel
+
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.SyntheticGuilds
+import fredboat.testutil.sentinel.SyntheticGuilds.GUILD_ID
+import fredboat.testutil.sentinel.SyntheticGuilds.memberId
+import fredboat.testutil.sentinel.SyntheticGuilds.voiceChannelId
+import fredboat.testutil.util.allocatedBytes
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class GuildUpdateTest : BaseTest() {
+
+    @Test
+    fun updateAppliesChanges() {
+        val raw = SyntheticGuilds.guild(1_000)
+        val guild = InternalGuild(raw.id).apply { update(raw) }
+        val unchanged = guild.getMember(memberId(5))!!
+        val leaving = memberId(0) // Connected to the first voice channel
+        assertNotNull(guild.getMember(leaving)!!.voiceChannel)
+
+        val renamedRole = raw.roles[0].copy(name = "Renamed")
+        val joined = RawMember(memberId(5_000), "Joined", "", "0001", GUILD_ID, false, listOf(renamedRole.id), null)
+        val changed = raw.copy(
+                name = "Renamed guild",
+                roles = listOf(renamedRole) + raw.roles.drop(1),
+                members = raw.members.drop(1) + joined
+        )
+        guild.update(update)
+
+        assertEquals("Renamed guild", guild.name)
+        assertEquals("Renamed", guild.getRole(renamedRole.id)!!.name)
+        assertSame(unchanged, guild.getMember(memberId(5)), "Unchanged members should be kept")
+        assertNull(guild.getMember(leaving))
+        assertNull(guild.getVoiceChannelOf(leaving))
+        assertFalse(guild.getVoiceChannel(voiceChannelId(0))!!.containsMember(leaving))
+        assertEquals(listOf(renamedRole.id), guild.getMember(joined.id)!!.roles.map { it.id })
+        assertEquals(raw.members.size, guild.members.size)
+    }
+
+    /**
+     * Compares what an update of a large guild with a changed name and role allocates against building the guild,
+     * which is what every update used to cost. Not a rigorous benchmark, results are logged.
+     */
+    @Test
+    fun benchmarkUpdateAllocations() {
+        val raw = SyntheticGuilds.guild(100_000)
+        val changed = raw.copy(
+                name = "Renamed guild",
+                roles = listOf(raw.roles[0].copy(name = "Renamed")) + raw.roles.drop(1)
+        )
+
+        lateinit var guild: InternalGuild
+        val buildBytes = allocatedBytes { guild = InternalGuild(raw.id).apply { update(raw) } }
+        guild.update(raw) // Warm up
+        val updateBytes = allocatedBytes { guild.update(changed) }
+
+        log.info("Guild with {} members: build allocated {} KiB, update allocated {} KiB",
+                raw.members.size, buildBytes / 1024, updateBytes / 1024)
+        assertEquals("Renamed guild", guild.name)
+    }
+}
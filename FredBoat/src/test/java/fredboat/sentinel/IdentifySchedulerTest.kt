@@ -0,0 +1,102 @@
+package fredboat.sentinel
+
+import com.fredboat.sentinel.entities.AppendSessionEvent
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+/**
+ * Tests the pacing of the [IdentifyScheduler] on a virtual clock, with a simulated Sentinel starting the shards.
+ */
+class IdentifySchedulerTest : BaseTest() {
+
+    companion object {
+        private const val DELAY = 5000L
+        private const val SENTINEL_LATENCY = 500L
+    }
+
+    private var now = 0L
+
+    private fun event(shardId: Int, totalShards: Int, routingKey: String = "sentinel") =
+            AppendSessionEvent(shardId = shardId, totalShards = totalShards, routingKey = routingKey)
+
+    @Test
+    fun startsOneShardPerBucket() {
+        val scheduler = IdentifyScheduler(4, DELAY, prioritizedShard = 7) { now }
+        (0 until 16).forEach { scheduler.append(event(it, 16)) }
+
+        val first = scheduler.poll { true }
+        assertEquals(listOf(0, 1, 2, 7), first.map { it.shardId })
+        assertTrue(scheduler.poll { true }.isEmpty(), "Buckets must wait for their shard to start")
+
+        now = 1000
+        first.forEach { scheduler.onStarted(it) }
+        now = 5999
+        assertTrue(scheduler.poll { true }.isEmpty(), "Buckets must wait for the identify delay")
+        now = 6000
+        assertEquals(listOf(4, 5, 6, 3), scheduler.poll { true }.map { it.shardId })
+        assertEquals(12, scheduler.size)
+    }
+
+    @Test
+    fun unavailableAndFailedShardsStayQueued() {
+        val scheduler = IdentifyScheduler(1, DELAY, prioritizedShard = 0) { now }
+        scheduler.append(event(0, 2, routingKey = "down"))
+        scheduler.append(event(1, 2))
+
+        val started = scheduler.poll { it.routingKey != "down" }.single()
+        assertEquals(1, started.shardId)
+        scheduler.onFailed(started)
+        assertTrue(scheduler.isQueued(0))
+        assertTrue(scheduler.isQueued(1))
+
+        now = DELAY
+        assertEquals(0, scheduler.poll { true }.single().shardId)
+        scheduler.remove(1)
+        scheduler.onStarted(event(0, 2, routingKey = "down"))
+        assertFalse(scheduler.isQueued(0))
+        now = 2 * DELAY
+        assertTrue(scheduler.poll { true }.isEmpty())
+        assertEquals(0, scheduler.size)
+    }
+
+    /**
+     * Starts 800 shards with a max concurrency of 16, and checks that no bucket identifies more often than allowed.
+     */
+    @Test
+    fun fullRestartIsPaced() {
+        val shards = 800
+        val maxConcurrency = 16
+        val scheduler = IdentifyScheduler(maxConcurrency, DELAY, prioritizedShard = 42) { now }
+        (0 until shards).forEach { scheduler.append(event(it, shards)) }
+
+        val startTimes = mutableMapOf<Int, Long>()
+        val pending = mutableListOf<Pair<Long, AppendSessionEvent>>() // Time the Sentinel will respond at
+        while (scheduler.size > 0) {
+            scheduler.poll { true }.forEach {
+                startTimes[it.shardId] = now
+                pending.add(now + SENTINEL_LATENCY to it)
+            }
+
+            // Skip ahead to the next response of the Sentinel or the next bucket becoming ready
+            now = listOfNotNull(pending.map { it.first }.min(), scheduler.millisUntilNext()?.plus(now)).min()!!
+            pending.filter { it.first <= now }.forEach { scheduler.onStarted(it.second) }
+            pending.removeIf { it.first <= now }
+        }
+
+        assertEquals(0L, startTimes[42], "The prioritized shard should start first")
+        assertEquals(DELAY + SENTINEL_LATENCY, startTimes[10], "The prioritized shard should precede its bucket")
+        assertEquals(shards, startTimes.size)
+        startTimes.entries.groupBy { it.key % maxConcurrency }.values.forEach { bucket ->
+            bucket.map { it.value }.sorted().zipWithNext().forEach { (previous, next) ->
+                assertTrue(next - previous >= DELAY + SENTINEL_LATENCY, "Shards of a bucket started too close together")
+            }
+        }
+        val windows = shards / maxConcurrency
+        val expected = (windows - 1) * (DELAY + SENTINEL_LATENCY)
+        log.info("Started {} shards in {}s of virtual time", shards, startTimes.values.max()!! / 1000)
+        assertEquals(expected, startTimes.values.max())
+    }
+}
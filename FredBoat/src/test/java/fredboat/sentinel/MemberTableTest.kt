@@ -0,0 +1,135 @@
+package fredboat.sentinel
+
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.SyntheticGuilds
+import fredboat.testutil.sentinel.SyntheticGuilds.GUILD_ID
+import fredboat.testutil.sentinel.SyntheticGuilds.memberId
+import fredboat.testutil.sentinel.SyntheticGuilds.roleId
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentHashMap
+
+class MemberTableTest : BaseTest() {
+
+    /** How members used to be cached: boxed keys, and one object with its own role list per member */
+    private class LegacyMember(
+            val guild: Any,
+            val id: Long,
+            val isBot: Boolean,
+            var name: String,
+            var discrim: String,
+            var nickname: String?,
+            var roles: MutableList<Role>
+    )
+
+    private val roles = (0 until 3).map { RawRole(roleId(it), "Role $it", 0) }
+    private val guild = InternalGuild(GUILD_ID).apply { updateRoles(roles) }
+    private val table = guild._members
+
+    private fun member(index: Int, name: String = "Member $index", roleIndices: List<Int> = emptyList()) = RawMember(
+            memberId(index), name, "", "0001", GUILD_ID, false, roleIndices.map { roleId(it) }, null
+    )
+
+    @Test
+    fun rolesFollowTheOrderOfTheGuild() {
+        table.put(member(0, roleIndices = listOf(2, 0)))
+
+        val view = table.lookup(memberId(0))!!
+        assertEquals(listOf(roleId(0), roleId(2)), view.roles.map { it.id })
+        assertTrue(view.hasRole(guild.getRole(roleId(2))!!))
+        assertFalse(view.hasRole(guild.getRole(roleId(1))!!))
+    }
+
+    @Test
+    fun removedRolesAreDroppedFromMembers() {
+        table.put(member(0, roleIndices = listOf(0, 1)))
+        guild.updateRoles(roles.drop(1))
+
+        assertEquals(listOf(roleId(1)), table.roles(memberId(0)).map { it.id })
+        assertFalse(table.hasRole(memberId(0), roleId(0)))
+    }
+
+    @Test
+    fun namesAreInterned() {
+        // Equal, but distinct string instances
+        table.put(member(0, String("Same name".toCharArray())))
+        table.put(member(1, String("Same name".toCharArray())))
+
+        assertSame(table.name(memberId(0)), table.name(memberId(1)))
+    }
+
+    @Test
+    fun lookedUpViewsAreKept() {
+        table.put(member(0))
+        table.put(member(1))
+
+        val view = table.lookup(memberId(0))
+        assertSame(view, table.lookup(memberId(0)))
+        assertSame(view, guild.members[memberId(0)])
+        assertEquals(setOf(memberId(0), memberId(1)), guild.members.values.map { it.id }.toSet())
+
+        table.put(member(0, "Renamed"))
+        assertSame(view, table.lookup(memberId(0)))
+        assertEquals("Renamed", view!!.name)
+    }
+
+    @Test
+    fun removedViewsKeepTheirLastState() {
+        table.put(member(0, "Leaving", listOf(1)))
+        val view = table.lookup(memberId(0))!!
+
+        assertSame(view, table.remove(memberId(0)))
+        assertNull(table.lookup(memberId(0)))
+        assertFalse(table.contains(memberId(0)))
+        assertEquals(0, table.size)
+
+        // The slot of the removed member is reused
+        table.put(member(1, "Joining", listOf(2)))
+        assertEquals("Leaving", view.name)
+        assertEquals(listOf(roleId(1)), view.roles.map { it.id })
+        assertEquals("Joining", table.name(memberId(1)))
+        assertEquals(listOf(roleId(2)), table.roles(memberId(1)).map { it.id })
+    }
+
+    /**
+     * Not a rigorous benchmark, as it relies on the heap usage reported after requesting garbage collections.
+     * The raw guild stays reachable during both measurements, so only the overhead of the cache is counted.
+     * Results are logged.
+     */
+    @Test
+    fun benchmarkBytesPerMember() {
+        val raw = SyntheticGuilds.guild(100_000)
+        val guildRoles = InternalGuild(raw.id).apply { updateRoles(raw.roles) }.roles
+
+        val (legacy, legacyBytes) = retainedBytes {
+            raw.members.map { m ->
+                LegacyMember(this, m.id, m.bot, m.name, m.discrim, m.nickname,
+                        m.roles.mapNotNullTo(mutableListOf()) { guildRoles[it] })
+            }.associateByTo(ConcurrentHashMap()) { it.id }
+        }
+        val (compact, compactBytes) = retainedBytes {
+            InternalGuild(raw.id).apply { update(raw.copy(voiceChannels = emptyList())) }
+        }
+
+        log.info("{} cached members: {} bytes per member before, {} bytes per member after",
+                raw.members.size, legacyBytes / raw.members.size, compactBytes / raw.members.size)
+
+        // Keep everything reachable until we are done measuring
+        assertEquals(legacy.size, compact.members.size)
+    }
+
+    private fun <T> retainedBytes(build: () -> T): Pair<T, Long> {
+        val before = usedHeap()
+        val result = build()
+        return result to usedHeap() - before
+    }
+
+    private fun usedHeap(): Long {
+        repeat(3) {
+            System.gc()
+            Thread.sleep(100)
+        }
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -62,6 +62,8 @@ class MockConfig : AppConfig, AudioSourcesConfig, Credentials, EventLoggerConfig
 
     override fun getPlayerLimit() = -1
 
+    override fun useBatchSubscribe() = true
+
     override fun isYouTubeEnabled() = true
 
     override fun isSoundCloudEnabled() = true
@@ -0,0 +1,48 @@
+package fredboat.testutil.sentinel
+
+import fredboat.sentinel.*
+
+/**
+ * Generates large guilds for tests. Every member has up to three roles, every 20th member is a bot and every
+ * 50th member is connected to a voice channel.
+ */
+object SyntheticGuilds {
+
+    const val GUILD_ID = 400_000_000_000_000_000L
+    const val ROLES = 200
+    const val TEXT_CHANNELS = 300
+    const val VOICE_CHANNELS = 100
+
+    fun memberId(index: Int) = 300_000_000_000_000_000L + index
+    fun roleId(index: Int) = 310_000_000_000_000_000L + index
+    fun textChannelId(index: Int) = 320_000_000_000_000_000L + index
+    fun voiceChannelId(index: Int) = 330_000_000_000_000_000L + index
+
+    fun member(i: Int) = RawMember(
+            memberId(i),
+            "Member $i",
+            if (i % 3 == 0) "Nick $i" else "",
+            (i % 10_000).toString().padStart(4, '0'),
+            GUILD_ID,
+            i % 20 == 0,
+            (0 until i % 4).map { roleId((i + it) % ROLES) },
+            if (i % 50 == 0) voiceChannelId(i / 50 % VOICE_CHANNELS) else null
+    )
+
+    fun guild(memberCount: Int): RawGuild {
+        val members = (0 until memberCount).map { member(it) }
+        val voiceStates = members.filter { it.voiceChannel != null }.groupBy({ it.voiceChannel!! }, { it.id })
+        return RawGuild(
+                GUILD_ID,
+                "Synthetic guild",
+                memberId(1),
+                members,
+                (0 until TEXT_CHANNELS).map { RawTextChannel(textChannelId(it), "text-$it", 0) },
+                (0 until VOICE_CHANNELS).map { vc ->
+                    RawVoiceChannel(voiceChannelId(vc), "Voice $vc", voiceStates[voiceChannelId(vc)] ?: listOf(), 0, 0)
+                },
+                (0 until ROLES).map { RawRole(roleId(it), "Role $it", 0) },
+                voiceServerUpdate = null
+        )
+    }
+}
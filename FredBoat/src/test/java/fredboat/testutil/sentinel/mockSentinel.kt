@@ -3,10 +3,14 @@ package fredboat.testutil.sentinel
 import com.fredboat.sentinel.SentinelExchanges
 import com.fredboat.sentinel.entities.*
 import fredboat.sentinel.GuildCache
+import fredboat.sentinel.GuildSubscribeBatchRequest
 import fredboat.sentinel.RawGuild
 import fredboat.sentinel.RawMember
 import fredboat.sentinel.RawVoiceChannel
+import fredboat.sentinel.UserSketchRequest
+import fredboat.sentinel.UserSketchResponse
 import fredboat.testutil.sentinel.SentinelState.outgoing
+import fredboat.util.HyperLogLog
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.amqp.rabbit.annotation.RabbitHandler
@@ -26,6 +30,8 @@ object SentinelState {
     var guild = Raws.guild
     @Volatile
     var banList = Raws.banList
+    @Volatile
+    var userIds: List<Long> = Raws.guild.members.map { it.id }
     val outgoing = mutableMapOf<Class<*>, LinkedBlockingQueue<Any>>()
     private val log: Logger = LoggerFactory.getLogger(SentinelState::class.java)
 
@@ -35,6 +41,7 @@ object SentinelState {
 
         guild = Raws.guild.copy()
         banList = Raws.banList
+        userIds = Raws.guild.members.map { it.id }
         outgoing.clear()
         guildCache.cache.remove(guild.id)
         //rabbit.convertAndSend(SentinelExchanges.EVENTS, GuildUpdateEvent(DefaultSentinelRaws.guild))
@@ -112,6 +119,13 @@ class MockSentinelRequestHandler(template: RabbitTemplate, cache: GuildCache) {
         return SentinelState.guild
     }
 
+    @RabbitHandler
+    fun subscribeBatch(request: GuildSubscribeBatchRequest): List<RawGuild> {
+        default(request)
+        log.info("Got batched subscription request for ${request.ids.size} guilds")
+        return listOf(SentinelState.guild).filter { it.id in request.ids }
+    }
+
     @RabbitHandler
     fun sendMessage(request: SendMessageRequest): SendMessageResponse {
         default(request)
@@ -175,6 +189,20 @@ class MockSentinelRequestHandler(template: RabbitTemplate, cache: GuildCache) {
         return ""
     }
 
+    @RabbitHandler
+    fun userList(request: UserListRequest): List<Long> {
+        default(request)
+        return SentinelState.userIds
+    }
+
+    @RabbitHandler
+    fun userSketch(request: UserSketchRequest): UserSketchResponse {
+        default(request)
+        val sketch = HyperLogLog(request.precision)
+        SentinelState.userIds.forEach { sketch.add(it) }
+        return UserSketchResponse(sketch.precision, sketch.registers)
+    }
+
     @RabbitHandler
     fun privateMessage(request: SendPrivateMessageRequest): String { default(request); return "" }
 
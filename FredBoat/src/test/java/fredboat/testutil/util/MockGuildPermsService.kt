@@ -5,6 +5,7 @@ import fredboat.db.transfer.GuildPermissions
 import fredboat.sentinel.Guild
 import org.springframework.context.annotation.Primary
 import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
 import java.util.function.Function
 
 @Service
@@ -18,6 +19,8 @@ class MockGuildPermsService : GuildPermsService {
 
     override fun fetchGuildPermissions(guild: Guild) = factory(guild)
 
+    override fun fetchGuildPermissionsMono(guild: Guild): Mono<GuildPermissions> = Mono.fromSupplier { factory(guild) }
+
     override fun transformGuildPerms(guild: Guild, transformation: Function<GuildPermissions, GuildPermissions>)
     = transformation.apply(factory(guild))
 
@@ -0,0 +1,15 @@
+package fredboat.testutil.util
+
+import java.lang.management.ManagementFactory
+
+/**
+ * @return the bytes the current thread allocated while running the block. Only meant for logging, as the numbers depend
+ * on the JVM and its settings.
+ */
+fun allocatedBytes(block: () -> Unit): Long {
+    val bean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val threadId = Thread.currentThread().id
+    val before = bean.getThreadAllocatedBytes(threadId)
+    block()
+    return bean.getThreadAllocatedBytes(threadId) - before
+}
@@ -8,6 +8,7 @@ import fredboat.audio.player.GuildPlayer
 import fredboat.audio.queue.AudioTrackContext
 import fredboat.main.Launcher
 import fredboat.sentinel.Guild
+import fredboat.sentinel.InternalGuild
 import fredboat.sentinel.InternalVoiceChannel
 import fredboat.sentinel.Member
 import fredboat.testutil.sentinel.Raws
@@ -31,7 +32,7 @@ fun Guild.queue(
     }.makeClone()
 
     if (member.voiceChannel == null) {
-        (getVoiceChannel(Raws.musicChannel.id)!! as InternalVoiceChannel).handleVoiceJoin(member)
+        (this as InternalGuild).handleVoiceJoin(getVoiceChannel(Raws.musicChannel.id)!! as InternalVoiceChannel, member)
         SentinelState.joinChannel(Raws.owner)
     }
 
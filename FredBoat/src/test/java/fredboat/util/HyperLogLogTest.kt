@@ -0,0 +1,40 @@
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class HyperLogLogTest : BaseTest() {
+
+    @Test
+    fun smallCardinalitiesAreNearlyExact() {
+        val sketch = HyperLogLog(14)
+        for (i in 1L..1_000L) sketch.add(i)
+        assertEquals(1_000.0, sketch.estimate().toDouble(), 20.0)
+    }
+
+    @Test
+    fun mergeEqualsSketchOfUnion() {
+        val first = HyperLogLog(12)
+        val second = HyperLogLog(12)
+        val union = HyperLogLog(12)
+        for (i in 0L until 50_000L) {
+            first.add(i)
+            union.add(i)
+        }
+        for (i in 25_000L until 75_000L) {
+            second.add(i)
+            union.add(i)
+        }
+
+        first.merge(second)
+        assertArrayEquals(union.registers, first.registers)
+    }
+
+    @Test
+    fun precisionForError() {
+        assertEquals(14, HyperLogLog.precisionFor(0.01))
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.precisionFor(0.0001))
+        assertThrows(IllegalArgumentException::class.java) { HyperLogLog(12).merge(HyperLogLog(13)) }
+    }
+}
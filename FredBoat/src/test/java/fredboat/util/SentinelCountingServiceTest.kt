@@ -0,0 +1,28 @@
+package fredboat.util
+
+import fredboat.main.getBotController
+import fredboat.testutil.IntegrationTest
+import fredboat.testutil.sentinel.SentinelState
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+class SentinelCountingServiceTest : IntegrationTest() {
+
+    @Test
+    fun estimateIsCloseToExactCount() {
+        // Users are usually in several guilds, so the Sentinel reports some of them more than once
+        SentinelState.userIds = (0L until 120_000L).map { 100_000_000_000_000_000L + it % 100_000 * 7919 }
+        val counting = getBotController().sentinelCountingService
+        val error = 0.01
+
+        val exact = counting.countUniqueUsersExactly().block(Duration.ofSeconds(30))!!
+        val estimate = counting.estimateUniqueUsers(HyperLogLog.precisionFor(error)).block(Duration.ofSeconds(30))!!
+
+        log.info("Exact unique user count {}, estimated {}", exact, estimate)
+        assertEquals(100_000, exact)
+        // Three times the standard error, which the estimate should only exceed in 0.3% of cases
+        assertTrue(Math.abs(estimate - exact) < exact * error * 3, "Estimated $estimate users, expected $exact")
+    }
+}
@@ -0,0 +1,52 @@
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class TimingWheelTest : BaseTest() {
+
+    @Test
+    fun returnsIdsOnceTheirDeadlinePassed() {
+        val wheel = TimingWheel(tickMillis = 10, wheelSize = 8, startMillis = 0)
+        wheel.schedule(1, 25)
+        wheel.schedule(2, 30)
+        wheel.schedule(3, 55)
+
+        assertTrue(wheel.advance(20).isEmpty())
+        assertEquals(listOf(1L, 2L), wheel.advance(30).sorted())
+        assertTrue(wheel.advance(50).isEmpty())
+        assertEquals(listOf(3L), wheel.advance(60).toList())
+        assertEquals(0, wheel.size)
+    }
+
+    @Test
+    fun pastDeadlinesAreReturnedByTheNextTick() {
+        val wheel = TimingWheel(tickMillis = 10, wheelSize = 8, startMillis = 100)
+        wheel.schedule(1, 0)
+        assertEquals(listOf(1L), wheel.advance(110).toList())
+    }
+
+    @Test
+    fun farDeadlinesWrapAround() {
+        val wheel = TimingWheel(tickMillis = 10, wheelSize = 8, startMillis = 0)
+        wheel.schedule(1, 100) // Further away than one rotation of 80ms
+
+        // Returned a rotation early, so it has to be rescheduled by the caller
+        assertEquals(listOf(1L), wheel.advance(20).toList())
+        wheel.schedule(1, 100)
+        assertTrue(wheel.advance(90).isEmpty())
+        assertEquals(listOf(1L), wheel.advance(100).toList())
+    }
+
+    @Test
+    fun largeSchedule() {
+        val wheel = TimingWheel(tickMillis = 1000, wheelSize = 1200, startMillis = 0)
+        for (id in 0L until 100_000L) wheel.schedule(id, 600_000 + id % 1000)
+
+        assertTrue(wheel.advance(599_000).isEmpty())
+        assertEquals(100_000, wheel.size)
+        assertEquals(100_000, wheel.advance(601_000).size)
+    }
+}
@@ -0,0 +1,93 @@
+package fredboat.util.ratelimit
+
+import fredboat.db.api.BlacklistService
+import fredboat.db.transfer.BlacklistEntry
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import java.util.concurrent.atomic.AtomicInteger
+
+class BlacklistTest : BaseTest() {
+
+    /** Behaves like a Quarterdeck without the blacklisted since endpoint */
+    private open class StubBlacklistService(private val entries: Map<Long, BlacklistEntry>) : BlacklistService {
+        val fetches = AtomicInteger()
+        val blockingFetches = AtomicInteger()
+        val deltaFetches = AtomicInteger()
+
+        override fun fetchBlacklistEntry(id: Long): BlacklistEntry {
+            blockingFetches.incrementAndGet()
+            return entry(id)
+        }
+
+        override fun fetchBlacklistEntryMono(id: Long): Mono<BlacklistEntry> = Mono.fromCallable { entry(id) }
+
+        private fun entry(id: Long): BlacklistEntry {
+            fetches.incrementAndGet()
+            return entries[id] ?: BlacklistEntry().apply { setId(id) }
+        }
+
+        override fun mergeBlacklistEntry(entry: BlacklistEntry) = entry
+
+        override fun deleteBlacklistEntry(id: Long) {}
+
+        override fun fetchBlacklistedSince(millis: Long): List<BlacklistEntry> {
+            deltaFetches.incrementAndGet()
+            throw UnsupportedOperationException("Fetching blacklisted entries responded with 404 NOT_FOUND")
+        }
+    }
+
+    private fun blacklisted(id: Long) = BlacklistEntry().apply {
+        setId(id)
+        level = 0
+        blacklistedTimestamp = System.currentTimeMillis()
+    }
+
+    @Test
+    fun missingDeltaEndpointFallsBackToEntryLookups() {
+        val service = StubBlacklistService(mapOf(1L to blacklisted(1)))
+        val blacklist = Blacklist(service, emptySet(), 10)
+
+        blacklist.sync()
+        blacklist.sync()
+        assertEquals(1, service.deltaFetches.get(), "Unsupported delta sync should only be attempted once")
+
+        assertTrue(blacklist.isBlacklisted(1), "Users blacklisted before startup should be blocked")
+        assertFalse(blacklist.isBlacklisted(2))
+
+        val fetches = service.fetches.get()
+        assertTrue(blacklist.isBlacklisted(1))
+        assertEquals(fetches, service.fetches.get(), "Blacklisted users should be served from the snapshot")
+    }
+
+    @Test
+    fun lookupsDontBlockTheCaller() {
+        val pending = MonoProcessor.create<BlacklistEntry>()
+        val service = object : StubBlacklistService(emptyMap()) {
+            override fun fetchBlacklistEntryMono(id: Long): Mono<BlacklistEntry> = pending
+        }
+        val blacklist = Blacklist(service, emptySet(), 10)
+
+        assertFalse(blacklist.isBlacklisted(1), "An unknown id should pass until its lookup completes")
+        pending.onNext(blacklisted(1))
+        assertTrue(blacklist.isBlacklisted(1))
+        assertEquals(0, service.blockingFetches.get())
+    }
+
+    @Test
+    fun locallyIssuedBlacklistingIsSeenImmediately() {
+        val service = StubBlacklistService(emptyMap())
+        val blacklist = Blacklist(service, emptySet(), 2)
+
+        assertEquals(0, blacklist.hitRateLimit(3))
+        assertTrue(blacklist.hitRateLimit(3) > 0)
+        assertTrue(blacklist.isBlacklisted(3))
+
+        blacklist.liftBlacklist(3)
+        assertFalse(blacklist.isBlacklisted(3))
+    }
+}
@@ -0,0 +1,36 @@
+package fredboat.util.ratelimit
+
+import fredboat.testutil.BaseTest
+import io.prometheus.client.guava.cache.CacheMetricsCollector
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Executors
+
+class RatelimitTest : BaseTest() {
+
+    private val executor = Executors.newSingleThreadExecutor()
+
+    /** 10 requests per 100ms, so a token is refilled every 10ms */
+    private val ratelimit = Ratelimit("test", CacheMetricsCollector(), executor, emptySet(),
+            Ratelimit.Scope.GUILD, 10, 100, null) { "" }
+
+    @AfterEach
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun heavyRequestsAreChargedTheirFullWeight() {
+        assertTrue(ratelimit.tryConsume(1, 100), "A full bucket should allow a heavy request")
+
+        // The request left a debt of 90 tokens, which takes 900ms to refill
+        val until = System.currentTimeMillis() + 300
+        while (System.currentTimeMillis() < until) {
+            assertFalse(ratelimit.tryConsume(1, 1), "Requests should be refused until the debt is paid off")
+            Thread.sleep(10)
+        }
+        assertTrue(ratelimit.tryConsume(2, 1), "Other ids should not be affected")
+    }
+}